@@ -0,0 +1,29 @@
+package org.jenkinsci.plugins.springconfig;
+
+import org.junit.Test;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+/**
+ * Runs the benchmarks of the {@code benchmark} profile, with the allocation rate of each
+ * reported by the GC profiler. The {@code benchmark.include} system property selects the
+ * benchmarks by regular expression.
+ */
+public class BenchmarkRunner {
+
+	@Test
+	public void runBenchmarks() throws Exception {
+		Options options = new OptionsBuilder()
+				.include(System.getProperty("benchmark.include", getClass().getPackage().getName() + ".*Benchmark"))
+				.warmupIterations(3).warmupTime(TimeValue.seconds(2)).measurementIterations(5)
+				.measurementTime(TimeValue.seconds(2)).addProfiler(GCProfiler.class)
+				.resultFormat(ResultFormatType.JSON).result("target/jmh-result.json").shouldFailOnError(true)
+				.build();
+		new Runner(options).run();
+	}
+
+}
@@ -0,0 +1,122 @@
+package org.jenkinsci.plugins.springconfig;
+
+import hudson.FilePath;
+import hudson.util.NullStream;
+import org.jenkinsci.plugins.springconfig.SpringConfigStep.SpringProfileExecution.Execution;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The steps of a {@code springConfig} call, from the files to the nested view read by the
+ * pipeline. The {@link ResolvedConfigCache} is disabled, so every call reads the files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.jenkinsci.plugins.springconfig.ResolvedConfigCache.maxSize=0")
+public class ConfigResolutionBenchmark {
+
+	@Param({ "100", "10000", "100000" })
+	public int keys;
+
+	@Param({ "NESTED", "ARRAYS" })
+	public GeneratedConfig config;
+
+	private File directory;
+
+	private Execution execution;
+
+	private StandardEnvironment environment;
+
+	private EnvironmentWrapper wrapper;
+
+	private byte[] serialized;
+
+	@Setup
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("spring-config-benchmark").toFile();
+		config.write(directory, keys);
+		execution = new Execution(Collections.emptyList(), null, SpringConfigEngine.LIGHTWEIGHT,
+				PropertyKeyFilter.ALL, new PrintStream(new NullStream()), new FilePath(directory));
+		List<String> locations = Collections.singletonList(directory.getAbsolutePath() + "/");
+		environment = new SpringConfigLoader().load(Collections.emptyList(), locations);
+		wrapper = new EnvironmentWrapper(environment);
+		serialized = serialize(wrapper);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException, InterruptedException {
+		new FilePath(directory).deleteRecursive();
+	}
+
+	/**
+	 * What the agent does: reads, resolves and serializes the config.
+	 */
+	@Benchmark
+	public ChannelPayload<EnvironmentWrapper> executionCall() {
+		return execution.call();
+	}
+
+	@Benchmark
+	public EnvironmentWrapper toProperties() {
+		return new EnvironmentWrapper(environment);
+	}
+
+	/**
+	 * Builds every nested map and list of the view.
+	 */
+	@Benchmark
+	public int nestedView() {
+		return walk(new NestedPropertyMap(wrapper.asProperties()));
+	}
+
+	@Benchmark
+	public EnvironmentWrapper serializationRoundTrip() throws IOException, ClassNotFoundException {
+		return deserialize(serialize(wrapper));
+	}
+
+	@Benchmark
+	public EnvironmentWrapper deserialization() throws IOException, ClassNotFoundException {
+		return deserialize(serialized);
+	}
+
+	private static int walk(Object value) {
+		if (value instanceof Map) {
+			int leaves = 0;
+			for (Object child : ((Map<?, ?>) value).values()) {
+				leaves += walk(child);
+			}
+			return leaves;
+		}
+		if (value instanceof List) {
+			int leaves = 0;
+			for (Object child : (List<?>) value) {
+				leaves += walk(child);
+			}
+			return leaves;
+		}
+		return 1;
+	}
+
+	private static byte[] serialize(EnvironmentWrapper wrapper) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(wrapper);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static EnvironmentWrapper deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+			return (EnvironmentWrapper) in.readObject();
+		}
+	}
+
+}
@@ -0,0 +1,82 @@
+package org.jenkinsci.plugins.springconfig;
+
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates the {@code application.yaml} of a benchmark.
+ */
+enum GeneratedConfig {
+
+	/**
+	 * Keys 8 levels deep with 4 children per level, every tenth value being a placeholder.
+	 */
+	NESTED {
+		@Override
+		Map<String, Object> generate(int keys) {
+			Map<String, Object> root = new LinkedHashMap<>();
+			root.put("base", "https://example.com");
+			for (int i = 0; i < keys; i++) {
+				Map<String, Object> map = root;
+				for (int level = 0, rest = i; level < 8; level++, rest /= 4) {
+					map = child(map, "level" + level + "_" + (rest % 4));
+				}
+				map.put("key" + i, value(i));
+			}
+			return root;
+		}
+	},
+
+	/**
+	 * Arrays of 1000 objects, each with a url and a flag.
+	 */
+	ARRAYS {
+		@Override
+		Map<String, Object> generate(int keys) {
+			Map<String, Object> root = new LinkedHashMap<>();
+			root.put("base", "https://example.com");
+			Map<String, Object> lists = child(root, "lists");
+			for (int i = 0; i < keys / 2; i++) {
+				@SuppressWarnings("unchecked")
+				List<Object> list = (List<Object>) lists.computeIfAbsent("list" + (i / 1000),
+						name -> new ArrayList<>());
+				Map<String, Object> element = new LinkedHashMap<>();
+				element.put("url", value(i));
+				element.put("enabled", i % 2 == 0);
+				list.add(element);
+			}
+			return root;
+		}
+	};
+
+	abstract Map<String, Object> generate(int keys);
+
+	/**
+	 * Writes the config as the {@code application.yaml} of the directory.
+	 */
+	void write(File directory, int keys) throws IOException {
+		try (Writer writer = Files.newBufferedWriter(new File(directory, "application.yaml").toPath(),
+				StandardCharsets.UTF_8)) {
+			new Yaml().dump(generate(keys), writer);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> child(Map<String, Object> map, String name) {
+		return (Map<String, Object>) map.computeIfAbsent(name, key -> new LinkedHashMap<>());
+	}
+
+	private static String value(int i) {
+		return i % 10 == 0 ? "${base}/path/" + i : "value-" + i;
+	}
+
+}
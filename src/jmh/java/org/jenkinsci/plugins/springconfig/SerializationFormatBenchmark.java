@@ -0,0 +1,78 @@
+package org.jenkinsci.plugins.springconfig;
+
+import hudson.FilePath;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The compact serialized form of {@link EnvironmentWrapper} against the YAML one of older
+ * plugin versions. The YAML format is limited to 64KB, hence the small configs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+public class SerializationFormatBenchmark {
+
+	public enum Format {
+
+		COMPACT, YAML
+
+	}
+
+	@Param({ "100", "500" })
+	public int keys;
+
+	@Param({ "NESTED", "ARRAYS" })
+	public GeneratedConfig config;
+
+	@Param({ "COMPACT", "YAML" })
+	public Format format;
+
+	private EnvironmentWrapper wrapper;
+
+	private byte[] serialized;
+
+	@Setup
+	public void setUp() throws IOException, InterruptedException {
+		File directory = Files.createTempDirectory("spring-config-benchmark").toFile();
+		try {
+			config.write(directory, keys);
+			wrapper = new EnvironmentWrapper(new SpringConfigLoader().load(Collections.emptyList(),
+					Collections.singletonList(directory.getAbsolutePath() + "/")));
+		}
+		finally {
+			new FilePath(directory).deleteRecursive();
+		}
+		serialized = serialize();
+	}
+
+	@Benchmark
+	public EnvironmentWrapper serializationRoundTrip() throws IOException, ClassNotFoundException {
+		return deserialize(serialize());
+	}
+
+	@Benchmark
+	public EnvironmentWrapper deserialization() throws IOException, ClassNotFoundException {
+		return deserialize(serialized);
+	}
+
+	private byte[] serialize() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			wrapper.writeTo(out, format == Format.YAML);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static EnvironmentWrapper deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+			return EnvironmentWrapper.readFrom(in);
+		}
+	}
+
+}
@@ -0,0 +1,77 @@
+package org.jenkinsci.plugins.springconfig;
+
+import hudson.FilePath;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The sorted view of the build page, built from the properties of a config without a
+ * Jenkins instance: they are set as not yet migrated properties, which the action reads
+ * as they are.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+public class SpringConfigActionBenchmark {
+
+	@Param({ "100", "10000", "100000" })
+	public int keys;
+
+	@Param({ "NESTED", "ARRAYS" })
+	public GeneratedConfig config;
+
+	private Map<String, Map<String, String>> properties;
+
+	private Field allProperties;
+
+	private SpringConfigAction cached;
+
+	@Setup
+	public void setUp() throws Exception {
+		File directory = Files.createTempDirectory("spring-config-benchmark").toFile();
+		try {
+			config.write(directory, keys);
+			properties = Collections.singletonMap("", new EnvironmentWrapper(new SpringConfigLoader()
+					.load(Collections.emptyList(), Collections.singletonList(directory.getAbsolutePath() + "/")))
+							.asProperties());
+		}
+		finally {
+			new FilePath(directory).deleteRecursive();
+		}
+		allProperties = SpringConfigAction.class.getDeclaredField("allProperties");
+		allProperties.setAccessible(true);
+		cached = action();
+		cached.getAllProperties();
+	}
+
+	/**
+	 * A page rendered for the first time.
+	 */
+	@Benchmark
+	public List<SpringConfigAction.ProfileConfig> getAllProperties() throws IllegalAccessException {
+		return action().getAllProperties();
+	}
+
+	/**
+	 * A page rendered again while the sorted view is still softly referenced.
+	 */
+	@Benchmark
+	public List<SpringConfigAction.ProfileConfig> getAllPropertiesCached() {
+		return cached.getAllProperties();
+	}
+
+	private SpringConfigAction action() throws IllegalAccessException {
+		SpringConfigAction action = new SpringConfigAction();
+		allProperties.set(action, properties);
+		return action;
+	}
+
+}
@@ -0,0 +1,182 @@
+package org.jenkinsci.plugins.springconfig;
+
+import com.cloudbees.hudson.plugins.folder.Folder;
+import hudson.model.Node;
+import hudson.model.queue.QueueTaskFuture;
+import hudson.slaves.DumbSlave;
+import hudson.slaves.RetentionStrategy;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs many pipelines at once, each calling {@code springConfig} and
+ * {@code springProfiles} from parallel branches on local agents, and checks every result.
+ * Reports the throughput, the latency percentiles of the builds and of the
+ * {@code springConfig} calls and the growth of the controller heap.
+ * <p>
+ * Run with {@code mvn test -Ploadtest}. Sized with the {@code loadtest.pipelines},
+ * {@code loadtest.branches}, {@code loadtest.agents}, {@code loadtest.executors} and
+ * {@code loadtest.keys} system properties.
+ */
+public class SpringConfigLoadTest {
+
+	private static final int PIPELINES = Integer.getInteger("loadtest.pipelines", 50);
+
+	private static final int BRANCHES = Integer.getInteger("loadtest.branches", 4);
+
+	private static final int AGENTS = Integer.getInteger("loadtest.agents", 2);
+
+	private static final int EXECUTORS = Integer.getInteger("loadtest.executors", 25);
+
+	private static final int KEYS = Integer.getInteger("loadtest.keys", 1000);
+
+	@Rule
+	public JenkinsRule r = new JenkinsRule();
+
+	@Rule
+	public TemporaryFolder configs = new TemporaryFolder();
+
+	@Test
+	public void concurrentPipelines() throws Exception {
+		for (int i = 0; i < AGENTS; i++) {
+			DumbSlave agent = new DumbSlave("load" + i, "", configs.newFolder("agent" + i).getAbsolutePath(),
+					Integer.toString(EXECUTORS), Node.Mode.NORMAL, "load", r.createComputerLauncher(null),
+					RetentionStrategy.NOOP, Collections.emptyList());
+			r.jenkins.addNode(agent);
+			r.waitOnline(agent);
+		}
+		String location = writeConfigs();
+
+		Folder folder = r.jenkins.createProject(Folder.class, "load");
+		SpringProfilesFolderProperty folderProfiles = new SpringProfilesFolderProperty();
+		folderProfiles.setSpringProfiles("loadtest");
+		folder.addProperty(folderProfiles);
+		List<WorkflowJob> jobs = new ArrayList<>();
+		for (int i = 0; i < PIPELINES; i++) {
+			WorkflowJob job = folder.createProject(WorkflowJob.class, "p" + i);
+			job.setDefinition(new CpsFlowDefinition(pipeline(location), true));
+			jobs.add(job);
+		}
+
+		long heapBefore = usedHeap();
+		long start = System.nanoTime();
+		List<QueueTaskFuture<WorkflowRun>> builds = new ArrayList<>();
+		for (WorkflowJob job : jobs) {
+			builds.add(job.scheduleBuild2(0));
+		}
+		List<WorkflowRun> runs = new ArrayList<>();
+		for (QueueTaskFuture<WorkflowRun> build : builds) {
+			runs.add(r.assertBuildStatusSuccess(build));
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		long heapAfter = usedHeap();
+
+		long[] buildMillis = new long[runs.size()];
+		List<Long> callMicros = new ArrayList<>();
+		for (int i = 0; i < runs.size(); i++) {
+			WorkflowRun run = runs.get(i);
+			buildMillis[i] = run.getDuration();
+			SpringConfigAction action = run.getAction(SpringConfigAction.class);
+			assertThat(action.getSummaries()).hasSize(BRANCHES);
+			for (int branch = 0; branch < BRANCHES; branch++) {
+				assertThat(action.getSummaries().get("loadtest,b" + branch).getKeyCount()).isEqualTo(KEYS + 2);
+			}
+			action.getMetrics().forEach(metrics -> callMicros.add(metrics.getTotalMicros()));
+		}
+		long[] calls = callMicros.stream().mapToLong(Long::longValue).toArray();
+		Arrays.sort(buildMillis);
+		Arrays.sort(calls);
+		System.out.printf("%d pipelines x %d branches on %d agents, %d keys: %.1f s, %.1f builds/s, %.1f calls/s%n",
+				PIPELINES, BRANCHES, AGENTS, KEYS, seconds, runs.size() / seconds, calls.length / seconds);
+		System.out.printf("build ms: p50 %d, p90 %d, p99 %d, max %d%n", percentile(buildMillis, 0.5),
+				percentile(buildMillis, 0.9), percentile(buildMillis, 0.99), buildMillis[buildMillis.length - 1]);
+		System.out.printf("springConfig ms: p50 %.1f, p90 %.1f, p99 %.1f, max %.1f%n",
+				percentile(calls, 0.5) / 1000.0, percentile(calls, 0.9) / 1000.0, percentile(calls, 0.99) / 1000.0,
+				calls[calls.length - 1] / 1000.0);
+		System.out.printf("controller heap: %d MB before, %d MB after, %+d MB%n", heapBefore >> 20, heapAfter >> 20,
+				(heapAfter - heapBefore) >> 20);
+		System.out.println(SpringConfigStatistics.get().getTimes().stream()
+				.map(row -> row.getName() + " p50 " + row.getP50() + " p99 " + row.getP99())
+				.reduce((a, b) -> a + ", " + b).orElse(""));
+	}
+
+	/**
+	 * Each branch reads the config with its own profile, checks a value of the base file,
+	 * its profile's override and a placeholder, then the folder profiles.
+	 */
+	private static String pipeline(String location) {
+		// @formatter:off
+		return "def branches = [:]\n"
+				+ "for (int i = 0; i < " + BRANCHES + "; i++) {\n"
+				+ "  def branch = 'b' + i\n"
+				+ "  branches[branch] = {\n"
+				+ "    node('load') {\n"
+				+ "      def profiles = springProfiles()\n"
+				+ "      assert profiles == ['loadtest']\n"
+				+ "      def config = springConfig(location: '" + location + "', profiles: profiles + [branch])\n"
+				+ "      def properties = config.asProperties()\n"
+				+ "      assert properties['group0.key1'] == 'value1'\n"
+				+ "      assert properties['group0.key0'] == branch\n"
+				+ "      assert properties['group0.url'] == 'https://example.com/' + branch\n"
+				+ "    }\n"
+				+ "  }\n"
+				+ "}\n"
+				+ "parallel branches\n";
+		// @formatter:on
+	}
+
+	/**
+	 * An {@code application.yaml} of {@link #KEYS} keys and a file per branch profile.
+	 */
+	private String writeConfigs() throws Exception {
+		File directory = configs.newFolder("config");
+		StringBuilder yaml = new StringBuilder("base: https://example.com\n");
+		for (int group = 0; group * 100 < KEYS; group++) {
+			yaml.append("group").append(group).append(":\n");
+			if (group == 0) {
+				yaml.append("  url: ${base}/${group0.key0}\n");
+			}
+			for (int key = group * 100; key < Math.min(KEYS, (group + 1) * 100); key++) {
+				yaml.append("  key").append(key).append(": value").append(key).append('\n');
+			}
+		}
+		write(new File(directory, "application.yaml"), yaml.toString());
+		for (int branch = 0; branch < BRANCHES; branch++) {
+			write(new File(directory, "application-b" + branch + ".yaml"), "group0:\n  key0: b" + branch + "\n");
+		}
+		return directory.getAbsolutePath().replace('\\', '/') + "/";
+	}
+
+	private static void write(File file, String content) throws Exception {
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static long percentile(long[] sorted, double percentile) {
+		return SpringConfigStatistics.Percentiles.percentile(sorted, percentile);
+	}
+
+	private static long usedHeap() {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		memory.gc();
+		memory.gc();
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+
+}
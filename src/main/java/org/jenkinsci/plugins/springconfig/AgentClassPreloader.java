@@ -0,0 +1,112 @@
+package org.jenkinsci.plugins.springconfig;
+
+import com.google.common.collect.ImmutableList;
+import hudson.remoting.Channel;
+import hudson.remoting.VirtualChannel;
+import hudson.remoting.Which;
+import jenkins.util.SystemProperties;
+import lombok.extern.java.Log;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+import org.springframework.core.env.StandardEnvironment;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URL;
+import java.util.*;
+import java.util.logging.Level;
+
+/**
+ * Sends the jars {@link SpringConfigStep.SpringProfileExecution.Execution} needs to an
+ * agent in one go, before its first call on the channel, instead of letting remoting
+ * fetch the classes one by one as they are loaded. Agents with a jar cache keep the jars
+ * across connections, keyed by checksum, so later connections load them locally.
+ * <p>
+ * Done once per channel. Disabled by setting the
+ * {@code org.jenkinsci.plugins.springconfig.AgentClassPreloader.enabled} system property
+ * to {@code false}.
+ */
+@Log
+final class AgentClassPreloader {
+
+	static final boolean ENABLED = SystemProperties.getBoolean(AgentClassPreloader.class.getName() + ".enabled",
+			true);
+
+	private static final String PRELOADED = AgentClassPreloader.class.getName() + ".preloaded";
+
+	private static final Map<Channel, Object> LOCKS = Collections.synchronizedMap(new WeakHashMap<>());
+
+	/**
+	 * A class of each jar to preload.
+	 */
+	private static final List<Class<?>> CLASSES_IN_JARS = ImmutableList.of(AgentClassPreloader.class,
+			SpringApplication.class, StandardEnvironment.class, BeanFactory.class, ApplicationContext.class,
+			ProxyFactory.class, Yaml.class, ImmutableList.class);
+
+	private AgentClassPreloader() {
+	}
+
+	static void preload(VirtualChannel virtualChannel, PrintStream logger) throws InterruptedException {
+		if (!ENABLED || !(virtualChannel instanceof Channel)) {
+			return;
+		}
+		Channel channel = (Channel) virtualChannel;
+		if (channel.getProperty(PRELOADED) != null) {
+			return;
+		}
+		// Not the channel itself, remoting synchronizes on it
+		synchronized (LOCKS.computeIfAbsent(channel, key -> new Object())) {
+			preloadOnce(channel, logger);
+		}
+	}
+
+	private static void preloadOnce(Channel channel, PrintStream logger) throws InterruptedException {
+		if (channel.getProperty(PRELOADED) != null) {
+			return;
+		}
+		long start = System.nanoTime();
+		List<URL> jars = new ArrayList<>();
+		long bytes = 0;
+		for (File jar : jarFiles()) {
+			try {
+				jars.add(jar.toURI().toURL());
+				bytes += jar.length();
+			}
+			catch (IOException e) {
+				log.log(Level.FINE, "Can't preload " + jar, e);
+			}
+		}
+		try {
+			channel.preloadJar(AgentClassPreloader.class.getClassLoader(), jars.toArray(new URL[0]));
+			logger.printf("Preloaded %d jars (%d KB) to %s in %d ms%n", jars.size(), bytes / 1024,
+					channel.getName(), (System.nanoTime() - start) / 1_000_000);
+		}
+		catch (IOException e) {
+			// The classes are still loaded one by one
+			logger.println("Failed to preload the Spring jars to " + channel.getName() + ": " + e);
+		}
+		channel.setProperty(PRELOADED, Boolean.TRUE);
+	}
+
+	/**
+	 * The jars of {@link #CLASSES_IN_JARS}, skipping classes not loaded from a jar as in
+	 * development.
+	 */
+	static Set<File> jarFiles() {
+		Set<File> jars = new LinkedHashSet<>();
+		for (Class<?> type : CLASSES_IN_JARS) {
+			try {
+				jars.add(Which.jarFile(type));
+			}
+			catch (IOException | IllegalArgumentException e) {
+				log.log(Level.FINE, "No jar to preload for " + type, e);
+			}
+		}
+		return jars;
+	}
+
+}
@@ -0,0 +1,115 @@
+package org.jenkinsci.plugins.springconfig;
+
+import hudson.remoting.ClassFilter;
+import hudson.remoting.ObjectInputStreamEx;
+import jenkins.util.SystemProperties;
+
+import java.io.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The result of a {@link SpringConfigStep.SpringProfileExecution.AbstractExecution},
+ * serialized in the JVM owning the workspace and gzipped when it is larger than a
+ * threshold, so large configs cross slow channels faster.
+ * <p>
+ * The threshold is read on the controller from the
+ * {@code org.jenkinsci.plugins.springconfig.ChannelPayload.compressionThreshold} system
+ * property, in bytes, 64KB by default. A negative value disables the compression.
+ */
+final class ChannelPayload<V> implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	static final int COMPRESSION_THRESHOLD = SystemProperties
+			.getInteger(ChannelPayload.class.getName() + ".compressionThreshold", 64 * 1024);
+
+	private final byte[] data;
+
+	private final boolean compressed;
+
+	private final SpringConfigMetrics metrics;
+
+	private final long callNanos;
+
+	private ChannelPayload(byte[] data, boolean compressed, SpringConfigMetrics metrics, long callNanos) {
+		this.data = data;
+		this.compressed = compressed;
+		this.metrics = metrics;
+		this.callNanos = callNanos;
+	}
+
+	/**
+	 * @param logger where the decision and the byte counts are reported
+	 * @param metrics the metrics of the call, the serialization time is added
+	 * @param callStart when the call started in this JVM, {@link System#nanoTime()}
+	 */
+	static <V extends Serializable> ChannelPayload<V> of(V value, int threshold, PrintStream logger,
+			SpringConfigMetrics metrics, long callStart) throws IOException {
+		long start = System.nanoTime();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(value);
+		}
+		byte[] serialized = bytes.toByteArray();
+		if (threshold < 0 || serialized.length < threshold) {
+			logger.printf("Sending the config uncompressed: %d bytes, below the compression threshold%n",
+					serialized.length);
+			return done(serialized, false, metrics, start, callStart);
+		}
+		long gzipStart = System.nanoTime();
+		ByteArrayOutputStream gzipped = new ByteArrayOutputStream(serialized.length / 4);
+		try (OutputStream out = new GZIPOutputStream(gzipped)) {
+			out.write(serialized);
+		}
+		logger.printf("Sending the config compressed: %d bytes to %d bytes in %d ms%n", serialized.length,
+				gzipped.size(), (System.nanoTime() - gzipStart) / 1_000_000);
+		return done(gzipped.toByteArray(), true, metrics, start, callStart);
+	}
+
+	private static <V> ChannelPayload<V> done(byte[] data, boolean compressed, SpringConfigMetrics metrics,
+			long start, long callStart) {
+		long end = System.nanoTime();
+		metrics.add(SpringConfigMetrics.Phase.SERIALIZE, end - start);
+		return new ChannelPayload<>(data, compressed, metrics, end - callStart);
+	}
+
+	int getSize() {
+		return data.length;
+	}
+
+	boolean isCompressed() {
+		return compressed;
+	}
+
+	/**
+	 * The metrics measured in the JVM of the workspace.
+	 */
+	SpringConfigMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * The time spent in the JVM of the workspace.
+	 */
+	long getCallNanos() {
+		return callNanos;
+	}
+
+	/**
+	 * Deserializes the value with the class filter remoting applies to the objects read
+	 * from the channel.
+	 */
+	@SuppressWarnings("unchecked")
+	V get() throws IOException {
+		InputStream in = new ByteArrayInputStream(data);
+		try (ObjectInputStream objects = new ObjectInputStreamEx(compressed ? new GZIPInputStream(in) : in,
+				ChannelPayload.class.getClassLoader(), ClassFilter.DEFAULT)) {
+			return (V) objects.readObject();
+		}
+		catch (ClassNotFoundException e) {
+			throw new IOException(e);
+		}
+	}
+
+}
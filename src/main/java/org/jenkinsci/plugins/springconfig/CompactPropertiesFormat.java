@@ -0,0 +1,201 @@
+package org.jenkinsci.plugins.springconfig;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * The binary form of flattened properties used by {@link EnvironmentWrapper}
+ * serialization and the files of {@link SpringConfigAction}.
+ * <p>
+ * Version 1 is laid out as follows, all numbers being unsigned varints and all strings
+ * UTF-8 bytes prefixed by their length: <pre>
+ * version
+ * value count, values       distinct values, referenced by index
+ * entry count, entries      sorted by key, each being:
+ *     shared prefix length  chars shared with the previous key
+ *     key suffix
+ *     value index + 1       0 for a null value
+ * profile count, profiles
+ * </pre>
+ */
+final class CompactPropertiesFormat {
+
+	static final int VERSION = 1;
+
+	private CompactPropertiesFormat() {
+	}
+
+	static void write(DataOutput out, Map<String, String> properties, String[] profiles) throws IOException {
+		writeVarint(out, VERSION);
+		writeProperties(out, properties);
+		writeVarint(out, profiles.length);
+		for (String profile : profiles) {
+			writeString(out, profile);
+		}
+	}
+
+	/**
+	 * Writes the value table and the entries. The output only depends on the content of
+	 * the map, not on its iteration order.
+	 */
+	static void writeProperties(DataOutput out, Map<String, String> properties) throws IOException {
+		List<String> keys = new ArrayList<>(properties.keySet());
+		Collections.sort(keys);
+
+		Map<String, Integer> valueIndexes = new LinkedHashMap<>();
+		for (String key : keys) {
+			String value = properties.get(key);
+			if (value != null) {
+				valueIndexes.putIfAbsent(value, valueIndexes.size());
+			}
+		}
+		writeVarint(out, valueIndexes.size());
+		for (String value : valueIndexes.keySet()) {
+			writeString(out, value);
+		}
+
+		writeVarint(out, keys.size());
+		String previous = "";
+		for (String key : keys) {
+			int shared = sharedPrefix(previous, key);
+			writeVarint(out, shared);
+			writeString(out, key.substring(shared));
+			String value = properties.get(key);
+			writeVarint(out, value == null ? 0 : valueIndexes.get(value) + 1);
+			previous = key;
+		}
+	}
+
+	/**
+	 * Reads what {@link #write} wrote.
+	 * @param properties receives the properties
+	 * @return the profiles
+	 */
+	static String[] read(DataInput in, Map<String, String> properties) throws IOException {
+		int version = readVarint(in);
+		if (version != VERSION) {
+			throw new InvalidObjectException("Unsupported properties format version " + version);
+		}
+		readProperties(in, properties);
+		String[] profiles = new String[readVarint(in)];
+		for (int i = 0; i < profiles.length; i++) {
+			profiles[i] = readString(in);
+		}
+		return profiles;
+	}
+
+	/**
+	 * Reads what {@link #writeProperties} wrote.
+	 */
+	static void readProperties(DataInput in, Map<String, String> properties) throws IOException {
+		String[] values = new String[readVarint(in)];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = readString(in);
+		}
+
+		int count = readVarint(in);
+		String previous = "";
+		for (int i = 0; i < count; i++) {
+			int shared = readVarint(in);
+			if (shared > previous.length()) {
+				throw new InvalidObjectException("Invalid shared key prefix " + shared);
+			}
+			String key = previous.substring(0, shared) + readString(in);
+			int valueIndex = readVarint(in);
+			if (valueIndex > values.length) {
+				throw new InvalidObjectException("Invalid value index " + valueIndex);
+			}
+			properties.put(key, valueIndex == 0 ? null : values[valueIndex - 1]);
+			previous = key;
+		}
+	}
+
+	/**
+	 * SHA-256 of the canonical form of the properties, as a hex string.
+	 */
+	static String digest(Map<String, String> properties) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		try (DataOutputStream out = new DataOutputStream(
+				new DigestOutputStream(new OutputStream() {
+
+					@Override
+					public void write(int b) {
+					}
+
+				}, digest))) {
+			writeProperties(out, properties);
+		}
+		catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest()) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+	private static int sharedPrefix(String previous, String key) {
+		int max = Math.min(previous.length(), key.length());
+		int shared = 0;
+		while (shared < max && previous.charAt(shared) == key.charAt(shared)) {
+			shared++;
+		}
+		// Never split a surrogate pair, the suffix must be valid UTF-16 on its own
+		if (shared > 0 && Character.isHighSurrogate(key.charAt(shared - 1))) {
+			shared--;
+		}
+		return shared;
+	}
+
+	static void writeString(DataOutput out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeVarint(out, bytes.length);
+		out.write(bytes);
+	}
+
+	static String readString(DataInput in) throws IOException {
+		byte[] bytes = new byte[readVarint(in)];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	static void writeVarint(DataOutput out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	static int readVarint(DataInput in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				if (value < 0) {
+					break;
+				}
+				return value;
+			}
+		}
+		throw new InvalidObjectException("Malformed varint");
+	}
+
+}
@@ -0,0 +1,199 @@
+package org.jenkinsci.plugins.springconfig;
+
+import org.jenkinsci.plugins.springconfig.SpringConfigAction.KeyValue;
+import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The formats of {@link SpringConfigAction#doDownload}. Each writes the recorded configs,
+ * their properties sorted by key, straight to the response.
+ */
+enum ConfigDownloadFormat {
+
+	/**
+	 * A Java properties file, the configs being separated by a comment with their profiles.
+	 * Characters are escaped as {@link java.util.Properties#store(java.io.OutputStream, String)}
+	 * does.
+	 */
+	PROPERTIES("text/plain", "properties") {
+		@Override
+		void write(Writer writer, Map<String, List<KeyValue>> configs) throws IOException {
+			for (Map.Entry<String, List<KeyValue>> config : configs.entrySet()) {
+				writer.write("#Profiles [");
+				escapeProperty(writer, config.getKey(), false);
+				writer.write("]\n");
+				for (KeyValue property : config.getValue()) {
+					escapeProperty(writer, property.getKey(), true);
+					writer.write('=');
+					if (property.getValue() != null) {
+						escapeProperty(writer, property.getValue().toString(), false);
+					}
+					writer.write('\n');
+				}
+			}
+		}
+	},
+
+	/**
+	 * One YAML document per config, nested as returned by {@code springConfig}.
+	 */
+	YAML("application/x-yaml", "yaml") {
+		@Override
+		void write(Writer writer, Map<String, List<KeyValue>> configs) throws IOException {
+			DumperOptions options = new DumperOptions();
+			options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
+			Yaml yaml = new Yaml(options);
+			for (Map.Entry<String, List<KeyValue>> config : configs.entrySet()) {
+				writer.write("--- # Profiles [" + config.getKey().replace('\n', ' ') + "]\n");
+				Map<String, String> properties = new LinkedHashMap<>();
+				for (KeyValue property : config.getValue()) {
+					properties.put(property.getKey(),
+							property.getValue() == null ? null : property.getValue().toString());
+				}
+				yaml.dump(new NestedPropertyMap(properties), writer);
+			}
+		}
+	},
+
+	/**
+	 * An object mapping the profiles of each config to an object of its flattened
+	 * properties.
+	 */
+	JSON("application/json", "json") {
+		@Override
+		void write(Writer writer, Map<String, List<KeyValue>> configs) throws IOException {
+			writer.write('{');
+			boolean firstConfig = true;
+			for (Map.Entry<String, List<KeyValue>> config : configs.entrySet()) {
+				if (!firstConfig) {
+					writer.write(',');
+				}
+				firstConfig = false;
+				escapeJson(writer, config.getKey());
+				writer.write(":{");
+				boolean firstProperty = true;
+				for (KeyValue property : config.getValue()) {
+					if (!firstProperty) {
+						writer.write(',');
+					}
+					firstProperty = false;
+					escapeJson(writer, property.getKey());
+					writer.write(':');
+					if (property.getValue() == null) {
+						writer.write("null");
+					}
+					else {
+						escapeJson(writer, property.getValue().toString());
+					}
+				}
+				writer.write('}');
+			}
+			writer.write('}');
+		}
+	};
+
+	private final String contentType;
+
+	private final String extension;
+
+	ConfigDownloadFormat(String contentType, String extension) {
+		this.contentType = contentType;
+		this.extension = extension;
+	}
+
+	String getContentType() {
+		return contentType;
+	}
+
+	String getExtension() {
+		return extension;
+	}
+
+	/**
+	 * @param configs the sorted properties by profiles
+	 */
+	abstract void write(Writer writer, Map<String, List<KeyValue>> configs) throws IOException;
+
+	private static void escapeProperty(Writer writer, String value, boolean key) throws IOException {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case ' ':
+					if (i == 0 || key) {
+						writer.write('\\');
+					}
+					writer.write(' ');
+					break;
+				case '\t':
+					writer.write("\\t");
+					break;
+				case '\n':
+					writer.write("\\n");
+					break;
+				case '\r':
+					writer.write("\\r");
+					break;
+				case '\f':
+					writer.write("\\f");
+					break;
+				case '=':
+				case ':':
+				case '#':
+				case '!':
+				case '\\':
+					writer.write('\\');
+					writer.write(c);
+					break;
+				default:
+					if (c < 0x20 || c > 0x7e) {
+						writer.write(String.format("\\u%04X", (int) c));
+					}
+					else {
+						writer.write(c);
+					}
+			}
+		}
+	}
+
+	/**
+	 * Writes the value as a JSON string.
+	 */
+	static void escapeJson(Writer writer, String value) throws IOException {
+		writer.write('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '"':
+					writer.write("\\\"");
+					break;
+				case '\\':
+					writer.write("\\\\");
+					break;
+				case '\n':
+					writer.write("\\n");
+					break;
+				case '\r':
+					writer.write("\\r");
+					break;
+				case '\t':
+					writer.write("\\t");
+					break;
+				default:
+					if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+						writer.write(String.format("\\u%04x", (int) c));
+					}
+					else {
+						writer.write(c);
+					}
+			}
+		}
+		writer.write('"');
+	}
+
+}
@@ -0,0 +1,93 @@
+package org.jenkinsci.plugins.springconfig;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * The names of the config files a location may contribute.
+ * <p>
+ * Uses no Spring class, so the files can be listed on an agent where Spring isn't loaded,
+ * see {@link ConfigFilesSnapshot}.
+ */
+final class ConfigFileNames {
+
+	static final String CONFIG_NAME = "application";
+
+	/**
+	 * The file extensions of the {@code PropertySourceLoader}s of {@link SpringConfigLoader},
+	 * in the same order.
+	 */
+	static final List<String> EXTENSIONS = Collections
+			.unmodifiableList(Arrays.asList("properties", "xml", "yml", "yaml"));
+
+	private ConfigFileNames() {
+	}
+
+	static boolean isDirectory(String location) {
+		return location.endsWith("/") || location.endsWith("\\");
+	}
+
+	/**
+	 * Lists the files the given location could contribute, whether they exist or not,
+	 * lowest precedence first.
+	 */
+	static List<String> candidatePaths(String location, String profile) {
+		String suffix = profile == null ? "" : "-" + profile;
+		List<String> paths = new ArrayList<>();
+		if (isDirectory(location)) {
+			for (String extension : EXTENSIONS) {
+				paths.add(0, location + CONFIG_NAME + suffix + "." + extension);
+			}
+		}
+		else {
+			String extension = getExtension(location);
+			paths.add(extension == null ? location + suffix
+					: location.substring(0, location.length() - extension.length() - 1) + suffix + "." + extension);
+		}
+		return paths;
+	}
+
+	/**
+	 * Lists the existing files at the given location that {@link SpringConfigLoader#load}
+	 * may read for any profile, sorted by name.
+	 */
+	static List<File> candidateFiles(String location) {
+		File file = new File(location);
+		File directory = isDirectory(location) ? file : file.getParentFile();
+		String name = isDirectory(location) ? CONFIG_NAME : stripExtension(file.getName());
+		File[] files = directory == null ? null
+				: directory.listFiles(
+						(dir, fileName) -> isCandidate(name, fileName) && new File(dir, fileName).isFile());
+		if (files == null) {
+			return Collections.emptyList();
+		}
+		Arrays.sort(files);
+		return Arrays.asList(files);
+	}
+
+	private static boolean isCandidate(String name, String fileName) {
+		String extension = getExtension(fileName);
+		boolean known = EXTENSIONS.stream().anyMatch(candidate -> candidate.equalsIgnoreCase(extension));
+		String base = stripExtension(fileName);
+		return known && (base.equals(name) || base.startsWith(name + "-"));
+	}
+
+	/**
+	 * The extension of the last segment of the path, {@code null} if it has none.
+	 */
+	static String getExtension(String path) {
+		int dot = extensionIndex(path);
+		return dot < 0 ? null : path.substring(dot + 1);
+	}
+
+	static String stripExtension(String path) {
+		int dot = extensionIndex(path);
+		return dot < 0 ? path : path.substring(0, dot);
+	}
+
+	private static int extensionIndex(String path) {
+		int dot = path.lastIndexOf('.');
+		return dot > Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\')) ? dot : -1;
+	}
+
+}
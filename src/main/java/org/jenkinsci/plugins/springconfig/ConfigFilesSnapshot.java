@@ -0,0 +1,208 @@
+package org.jenkinsci.plugins.springconfig;
+
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The candidate config files of some locations, read in the JVM owning the workspace and
+ * sent as a whole, so the config can be resolved in another JVM.
+ * <p>
+ * Files are keyed by the paths {@link SpringConfigLoader} asks for, the location followed
+ * by the file name, so the agent's path conventions are kept.
+ * <p>
+ * The system properties and environment variables of the JVM reading the files are sent
+ * along, the placeholders and profiles are resolved against them as in the agent mode and
+ * never against those of the controller. Only those a placeholder of the files, or of the
+ * values sent, refers to and those setting the {@code spring.profiles} are sent, the others
+ * may hold secrets the config never used.
+ * <p>
+ * Read on the agent without loading any Spring class, the snapshot is resolved on the
+ * controller through a {@link SnapshotConfigSource}.
+ */
+final class ConfigFilesSnapshot implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The name of a placeholder, before its default value. Nested placeholders are found on
+	 * their own.
+	 */
+	private static final Pattern PLACEHOLDER = Pattern.compile("\\$\\{([^:}$]+)");
+
+	private static final String PROFILES_PROPERTY = "spring.profiles";
+
+	private final Set<String> existingLocations = new HashSet<>();
+
+	/**
+	 * The paths of the files of each location, sorted by name.
+	 */
+	private final Map<String, List<String>> paths = new LinkedHashMap<>();
+
+	private final Map<String, String> absolutePaths = new HashMap<>();
+
+	private final Map<String, byte[]> contents = new HashMap<>();
+
+	private final Map<String, Object> systemProperties = new HashMap<>();
+
+	private final Map<String, Object> systemEnvironment = new HashMap<>();
+
+	/**
+	 * Reads the candidate files of the locations from the local file system.
+	 */
+	static ConfigFilesSnapshot read(List<String> locations) throws IOException {
+		ConfigFilesSnapshot snapshot = new ConfigFilesSnapshot();
+		for (String location : locations) {
+			List<String> locationPaths = new ArrayList<>();
+			if (new File(location).exists()) {
+				snapshot.existingLocations.add(location);
+				String directory = ConfigFileNames.isDirectory(location) ? location
+						: location.substring(0, location.length() - new File(location).getName().length());
+				for (File file : ConfigFileNames.candidateFiles(location)) {
+					String path = directory + file.getName();
+					locationPaths.add(path);
+					snapshot.absolutePaths.put(path, file.getAbsolutePath());
+					snapshot.contents.put(path, Files.readAllBytes(file.toPath()));
+				}
+			}
+			snapshot.paths.put(location, locationPaths);
+		}
+		snapshot.captureEnvironment();
+		return snapshot;
+	}
+
+	/**
+	 * Keeps the system properties and environment variables the placeholders refer to, as
+	 * matched by Spring, and those setting the profiles.
+	 */
+	private void captureEnvironment() {
+		Map<String, String> properties = new HashMap<>();
+		for (String name : System.getProperties().stringPropertyNames()) {
+			properties.put(name, System.getProperty(name));
+		}
+		Map<String, String> environment = System.getenv();
+		Deque<String> pending = new ArrayDeque<>();
+		contents.values().forEach(content -> addPlaceholders(new String(content, StandardCharsets.UTF_8), pending));
+		properties.forEach((name, value) -> {
+			if (name.startsWith(PROFILES_PROPERTY)) {
+				systemProperties.put(name, value);
+				addPlaceholders(value, pending);
+			}
+		});
+		environment.forEach((name, value) -> {
+			if (name.replace('_', '.').toLowerCase(Locale.ROOT).startsWith(PROFILES_PROPERTY)) {
+				systemEnvironment.put(name, value);
+				addPlaceholders(value, pending);
+			}
+		});
+		Set<String> referenced = new HashSet<>();
+		while (!pending.isEmpty()) {
+			String name = pending.pop();
+			if (!referenced.add(name)) {
+				continue;
+			}
+			String value = properties.get(name);
+			if (value != null) {
+				systemProperties.put(name, value);
+				addPlaceholders(value, pending);
+			}
+			for (String variant : environmentVariants(name)) {
+				value = environment.get(variant);
+				if (value != null) {
+					systemEnvironment.put(variant, value);
+					addPlaceholders(value, pending);
+				}
+			}
+		}
+	}
+
+	private static void addPlaceholders(String text, Deque<String> names) {
+		if (text.contains("${")) {
+			Matcher matcher = PLACEHOLDER.matcher(text);
+			while (matcher.find()) {
+				names.push(matcher.group(1));
+			}
+		}
+	}
+
+	/**
+	 * The names of the environment variables {@code SystemEnvironmentPropertySource} reads
+	 * a property from.
+	 */
+	private static Set<String> environmentVariants(String name) {
+		Set<String> variants = new LinkedHashSet<>();
+		for (String variant : Arrays.asList(name, name.replace('.', '_'), name.replace('-', '_'),
+				name.replace('.', '_').replace('-', '_'))) {
+			variants.add(variant);
+			variants.add(variant.toUpperCase(Locale.ROOT));
+		}
+		return variants;
+	}
+
+	int getFileCount() {
+		return contents.size();
+	}
+
+	long getByteCount() {
+		return contents.values().stream().mapToLong(content -> content.length).sum();
+	}
+
+	boolean exists(String location) {
+		return existingLocations.contains(location);
+	}
+
+	/**
+	 * The paths of the files of the location, sorted by name.
+	 */
+	List<String> getPaths(String location) {
+		return paths.getOrDefault(location, Collections.emptyList());
+	}
+
+	/**
+	 * @return the content of the file at the path, {@code null} if there is none
+	 */
+	byte[] getContent(String path) {
+		return contents.get(path);
+	}
+
+	String getAbsolutePath(String path) {
+		return absolutePaths.getOrDefault(path, path);
+	}
+
+	Map<String, Object> getSystemProperties() {
+		return Collections.unmodifiableMap(systemProperties);
+	}
+
+	Map<String, Object> getSystemEnvironment() {
+		return Collections.unmodifiableMap(systemEnvironment);
+	}
+
+	/**
+	 * Reads the snapshot in the JVM of the workspace, in one round trip.
+	 */
+	static final class Reader extends MasterToSlaveFileCallable<ConfigFilesSnapshot> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<String> locations;
+
+		Reader(List<String> locations) {
+			this.locations = new ArrayList<>(locations);
+		}
+
+		@Override
+		public ConfigFilesSnapshot invoke(File workspace, VirtualChannel channel) throws IOException {
+			return read(locations);
+		}
+
+	}
+
+}
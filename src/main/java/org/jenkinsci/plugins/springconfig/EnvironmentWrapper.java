@@ -5,13 +5,14 @@ import lombok.SneakyThrows;
 import org.jenkinsci.plugins.scriptsecurity.sandbox.whitelists.Whitelisted;
 import org.springframework.boot.env.OriginTrackedMapPropertySource;
 import org.springframework.boot.origin.OriginTrackedValue;
-import org.springframework.core.env.Environment;
 import org.springframework.core.env.PropertySource;
 import org.springframework.core.env.StandardEnvironment;
 import org.yaml.snakeyaml.Yaml;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.io.Serializable;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
@@ -21,33 +22,94 @@ public class EnvironmentWrapper extends AbstractMap<String, Object> implements S
 
 	private static final long serialVersionUID = 1L;
 
-	private Map<String, Object> rootMap;
-
 	private Map<String, String> properties;
 
+	private transient NestedPropertyMap root;
+
 	private String[] profiles;
 
+	/**
+	 * Writes the YAML format of older plugin versions, so pickled pipelines can still be
+	 * read after a downgrade. That format is limited to 64KB.
+	 */
+	static final boolean LEGACY_SERIALIZATION = Boolean
+			.getBoolean(EnvironmentWrapper.class.getName() + ".legacySerialization");
+
 	private void writeObject(java.io.ObjectOutputStream out) throws IOException {
-		Yaml yaml = new Yaml();
-		String output = yaml.dump(properties);
-		out.writeUTF(output);
-		out.writeObject(profiles);
+		writeTo(out, LEGACY_SERIALIZATION);
 	}
 
 	private void readObject(java.io.ObjectInputStream in) throws IOException, ClassNotFoundException {
+		read(in);
+	}
+
+	/**
+	 * Writes the serialized form of the wrapper.
+	 * @param legacy whether to write the YAML format of older plugin versions instead of
+	 * the compact one
+	 */
+	void writeTo(ObjectOutput out, boolean legacy) throws IOException {
+		if (legacy) {
+			Yaml yaml = new Yaml();
+			String output = yaml.dump(properties);
+			out.writeUTF(output);
+			out.writeObject(profiles);
+		}
+		else {
+			// An empty header marks the compact format, YAML output is never empty
+			out.writeUTF("");
+			CompactPropertiesFormat.write(out, properties, profiles);
+		}
+	}
+
+	/**
+	 * Reads what {@link #writeTo} wrote, in either format.
+	 */
+	static EnvironmentWrapper readFrom(ObjectInput in) throws IOException, ClassNotFoundException {
+		EnvironmentWrapper wrapper = new EnvironmentWrapper(null, null);
+		wrapper.read(in);
+		return wrapper;
+	}
+
+	private void read(ObjectInput in) throws IOException, ClassNotFoundException {
 		String yamlString = in.readUTF();
-		Yaml yaml = new Yaml();
-		properties = yaml.load(yamlString);
-		rootMap = createNestedMap(properties);
-		profiles = (String[]) in.readObject();
+		if (yamlString.isEmpty()) {
+			properties = new LinkedHashMap<>();
+			profiles = CompactPropertiesFormat.read(in, properties);
+		}
+		else {
+			Yaml yaml = new Yaml();
+			properties = yaml.load(yamlString);
+			profiles = (String[]) in.readObject();
+		}
 	}
 
 	public EnvironmentWrapper(StandardEnvironment environment) {
-		properties = toProperties(environment);
-		rootMap = createNestedMap(properties);
+		this(environment, PropertyKeyFilter.ALL);
+	}
+
+	/**
+	 * @param filter the keys to keep, the others are dropped before their placeholders are
+	 * resolved
+	 */
+	public EnvironmentWrapper(StandardEnvironment environment, PropertyKeyFilter filter) {
+		properties = toProperties(environment, filter);
 		profiles = environment.getActiveProfiles();
 	}
 
+	private EnvironmentWrapper(Map<String, String> properties, String[] profiles) {
+		this.properties = properties;
+		this.profiles = profiles;
+	}
+
+	/**
+	 * A copy sharing no modifiable state with this wrapper, for a caller that may modify
+	 * it while others read this one.
+	 */
+	EnvironmentWrapper copy() {
+		return new EnvironmentWrapper(new LinkedHashMap<>(properties), profiles.clone());
+	}
+
 	@Whitelisted
 	public List<String> getProfiles() {
 		return ImmutableList.copyOf(profiles);
@@ -72,12 +134,37 @@ public class EnvironmentWrapper extends AbstractMap<String, Object> implements S
 		return new String(baos.toByteArray(), StandardCharsets.UTF_8);
 	}
 
+	@Override
+	public Object get(Object key) {
+		return root().get(key);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return root().containsKey(key);
+	}
+
+	@Override
+	public int size() {
+		return root().size();
+	}
+
 	@Override
 	public Set<Entry<String, Object>> entrySet() {
-		return rootMap.entrySet();
+		return root().entrySet();
 	}
 
-	private Map<String, String> toProperties(StandardEnvironment environment) {
+	/**
+	 * The nested view of the properties, built on first access.
+	 */
+	private synchronized NestedPropertyMap root() {
+		if (root == null) {
+			root = new NestedPropertyMap(properties);
+		}
+		return root;
+	}
+
+	private Map<String, String> toProperties(StandardEnvironment environment, PropertyKeyFilter filter) {
 		// Map of unique keys containing full map of properties for each unique
 		// key
 		Map<String, Map<String, Object>> map = new LinkedHashMap<>();
@@ -88,235 +175,44 @@ public class EnvironmentWrapper extends AbstractMap<String, Object> implements S
 		sources.stream().filter(source -> source instanceof OriginTrackedMapPropertySource).forEach(source -> {
 			@SuppressWarnings("unchecked")
 			Map<String, Object> value = (Map<String, Object>) source.getSource();
+			// Arrays of this source grouped by key in a single pass. An array replaces
+			// the whole array of the same key added by a lower precedence source, which
+			// might be of a different size.
+			Map<String, Map<String, Object>> arrays = new LinkedHashMap<>();
 			for (Map.Entry<String, Object> entry : value.entrySet()) {
 				String key = entry.getKey();
-				if (!key.contains("[")) {
+				Object val = entry.getValue();
+				if (val instanceof OriginTrackedValue) {
+					val = ((OriginTrackedValue) val).getValue();
+				}
+				int bracket = key.indexOf('[');
+				if (bracket < 0) {
 					// Not an array, add unique key to the map
-
-					Object val = entry.getValue();
-					if (val instanceof OriginTrackedValue) {
-						val = ((OriginTrackedValue) val).getValue();
-					}
 					combinedMap.put(key, val);
-
 				}
 				else {
-					// An existing array might have already been added to the
-					// property map
-					// of an unequal size to the current array. Replace the array
-					// key in
-					// the current map.
-					key = key.substring(0, key.indexOf("["));
-					Map<String, Object> filtered = new LinkedHashMap<>();
-					for (Map.Entry<String, Object> innerLoopEntry : value.entrySet()) {
-						String index = innerLoopEntry.getKey();
-						if (index.startsWith(key + "[")) {
-							Object val = innerLoopEntry.getValue();
-							if (val instanceof OriginTrackedValue) {
-								val = ((OriginTrackedValue) val).getValue();
-							}
-							filtered.put(index, val);
-						}
-					}
-					map.put(key, filtered);
+					arrays.computeIfAbsent(key.substring(0, bracket), arrayKey -> new LinkedHashMap<>()).put(key, val);
 				}
 			}
+			map.putAll(arrays);
 		});
 		// Combine all unique keys for array values into the combined map
 		for (Map.Entry<String, Map<String, Object>> entry : map.entrySet()) {
 			combinedMap.putAll(entry.getValue());
 		}
+		if (!filter.isAll()) {
+			combinedMap.keySet().removeIf(filter.negate());
+		}
 		return postProcessProperties(combinedMap, environment);
 	}
 
-	private Map<String, String> postProcessProperties(Map<String, Object> propertiesMap, Environment environment) {
+	private Map<String, String> postProcessProperties(Map<String, Object> propertiesMap,
+			StandardEnvironment environment) {
 		propertiesMap.keySet().removeIf(key -> key.equals("spring.profiles"));
-		return propertiesMap.entrySet().stream().collect(Collectors.toMap(Entry::getKey,
-				entry -> environment.resolvePlaceholders(String.valueOf(entry.getValue())).replace("$_{", "${")));
-	}
-
-	private Map<String, Object> createNestedMap(Map<String, String> properties) {
-		Map<String, Object> rootMap = new LinkedHashMap<>();
-		for (Entry<String, String> entry : properties.entrySet()) {
-			String key = entry.getKey();
-			Object value = entry.getValue();
-			PropertyNavigator nav = new PropertyNavigator(key);
-			nav.setMapValue(rootMap, value);
-		}
-		return rootMap;
-	}
-
-	/**
-	 * Class {@code PropertyNavigator} is used to navigate through the property key and
-	 * create necessary Maps and Lists making up the nested structure to finally set the
-	 * property value at the leaf node.
-	 * <p>
-	 * The following rules in yml/json are implemented: <pre>
-	 * 1. an array element can be:
-	 *    - a value (leaf)
-	 *    - a map
-	 *    - a nested array
-	 * 2. a map value can be:
-	 *    - a value (leaf)
-	 *    - a nested map
-	 *    - an array
-	 * </pre>
-	 */
-	private static final class PropertyNavigator {
-
-		private final String propertyKey;
-
-		// Supports keys like org.x and org.x.y like in boot logging
-		private String prefix = "";
-
-		private int currentPos;
-
-		private NodeType valueType;
-
-		private PropertyNavigator(String propertyKey) {
-			this.propertyKey = propertyKey;
-			this.currentPos = -1;
-			this.valueType = NodeType.MAP;
-		}
-
-		@SuppressWarnings("unchecked")
-		private void setMapValue(Map<String, Object> map, Object value) {
-			String key = getKey();
-			if (NodeType.MAP.equals(this.valueType)) {
-				Map<String, Object> nestedMap;
-				if (map.get(key) instanceof Map) {
-					nestedMap = (Map<String, Object>) map.get(key);
-				}
-				else if (map.get(key) != null) {
-					// not an object, set prefix for later
-					prefix = key + ".";
-					nestedMap = map;
-				}
-				else {
-					// value of key is null
-					nestedMap = new LinkedHashMap<>();
-					map.put(key, nestedMap);
-				}
-				setMapValue(nestedMap, value);
-			}
-			else if (NodeType.ARRAY.equals(this.valueType)) {
-				List<Object> list = (List<Object>) map.get(key);
-				if (list == null) {
-					list = new ArrayList<>();
-					map.put(key, list);
-				}
-				setListValue(list, value);
-			}
-			else {
-				// use compound prefix
-				map.put(prefix + key, value);
-			}
-		}
-
-		private void setListValue(List<Object> list, Object value) {
-			int index = getIndex();
-			// Fill missing elements if needed
-			while (list.size() <= index) {
-				list.add(null);
-			}
-			if (NodeType.MAP.equals(this.valueType)) {
-				@SuppressWarnings("unchecked")
-				Map<String, Object> map = (Map<String, Object>) list.get(index);
-				if (map == null) {
-					map = new LinkedHashMap<>();
-					list.set(index, map);
-				}
-				setMapValue(map, value);
-			}
-			else if (NodeType.ARRAY.equals(this.valueType)) {
-				@SuppressWarnings("unchecked")
-				List<Object> nestedList = (List<Object>) list.get(index);
-				if (nestedList == null) {
-					nestedList = new ArrayList<>();
-					list.set(index, nestedList);
-				}
-				setListValue(nestedList, value);
-			}
-			else {
-				list.set(index, value);
-			}
-		}
-
-		private int getIndex() {
-			// Consider [
-			int start = this.currentPos + 1;
-			for (int i = start; i < this.propertyKey.length(); i++) {
-				char c = this.propertyKey.charAt(i);
-				if (c == ']') {
-					this.currentPos = i;
-					break;
-				}
-				else if (!Character.isDigit(c)) {
-					throw new IllegalArgumentException("Invalid key: " + this.propertyKey);
-				}
-			}
-			// If no closing ] or if '[]'
-			if (this.currentPos < start || this.currentPos == start) {
-				throw new IllegalArgumentException("Invalid key: " + this.propertyKey);
-			}
-			else {
-				int index = Integer.parseInt(this.propertyKey.substring(start, this.currentPos));
-				// Skip the closing ]
-				this.currentPos++;
-				if (this.currentPos == this.propertyKey.length()) {
-					this.valueType = NodeType.LEAF;
-				}
-				else {
-					switch (this.propertyKey.charAt(this.currentPos)) {
-					case '.':
-						this.valueType = NodeType.MAP;
-						break;
-					case '[':
-						this.valueType = NodeType.ARRAY;
-						break;
-					default:
-						throw new IllegalArgumentException("Invalid key: " + this.propertyKey);
-					}
-				}
-				return index;
-			}
-		}
-
-		private String getKey() {
-			// Consider initial value or previous char '.' or '['
-			int start = this.currentPos + 1;
-			for (int i = start; i < this.propertyKey.length(); i++) {
-				char currentChar = this.propertyKey.charAt(i);
-				if (currentChar == '.') {
-					this.valueType = NodeType.MAP;
-					this.currentPos = i;
-					break;
-				}
-				else if (currentChar == '[') {
-					this.valueType = NodeType.ARRAY;
-					this.currentPos = i;
-					break;
-				}
-			}
-			// If there's no delimiter then it's a key of a leaf
-			if (this.currentPos < start) {
-				this.currentPos = this.propertyKey.length();
-				this.valueType = NodeType.LEAF;
-				// Else if we encounter '..' or '.[' or start of the property is . or [
-				// then it's invalid
-			}
-			else if (this.currentPos == start) {
-				throw new IllegalArgumentException("Invalid key: " + this.propertyKey);
-			}
-			return this.propertyKey.substring(start, this.currentPos);
-		}
-
-		private enum NodeType {
-
-			LEAF, MAP, ARRAY
-
-		}
-
+		Map<String, String> resolved = new MemoizedPlaceholderResolver(environment.getPropertySources())
+				.resolveAll(propertiesMap);
+		resolved.replaceAll((key, value) -> value.replace("$_{", "${"));
+		return resolved;
 	}
 
 }
@@ -0,0 +1,136 @@
+package org.jenkinsci.plugins.springconfig;
+
+import com.cloudbees.hudson.plugins.folder.AbstractFolder;
+import com.google.common.collect.ImmutableList;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.Saveable;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.SaveableListener;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The effective profiles of each folder: the profiles of its parent folders followed by
+ * its own, each folder's entry being built from its parent's.
+ * <p>
+ * Folders are weakly referenced. The entries of a folder and of all folders below it are
+ * dropped when it is saved, renamed, moved or deleted.
+ */
+final class FolderProfilesCache {
+
+	private static final FolderProfilesCache INSTANCE = new FolderProfilesCache();
+
+	private final Map<AbstractFolder<?>, ImmutableList<String>> entries = Collections
+			.synchronizedMap(new WeakHashMap<>());
+
+	/**
+	 * Incremented by each invalidation, so an entry computed meanwhile isn't kept.
+	 */
+	private final AtomicLong generation = new AtomicLong();
+
+	static FolderProfilesCache getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * The effective profiles of the closest folder containing the item group, empty if
+	 * there is none.
+	 */
+	ImmutableList<String> get(ItemGroup<?> group) {
+		ItemGroup<?> parent = group;
+		while (parent instanceof Item && !(parent instanceof AbstractFolder)) {
+			parent = ((Item) parent).getParent();
+		}
+		return parent instanceof AbstractFolder ? get((AbstractFolder<?>) parent) : ImmutableList.of();
+	}
+
+	ImmutableList<String> get(AbstractFolder<?> folder) {
+		ImmutableList<String> profiles = entries.get(folder);
+		if (profiles == null) {
+			long before = generation.get();
+			profiles = ImmutableList.<String>builder().addAll(get(folder.getParent()))
+					.addAll(SpringProfilesFolderProperty.retrieveSpringProfilesFromSingleFolder(folder)).build();
+			synchronized (entries) {
+				if (generation.get() == before) {
+					entries.put(folder, profiles);
+				}
+			}
+		}
+		return profiles;
+	}
+
+	/**
+	 * Drops the entries of the item and of the folders below it.
+	 */
+	void invalidate(Item item) {
+		synchronized (entries) {
+			generation.incrementAndGet();
+			entries.keySet().removeIf(folder -> isSelfOrDescendant(folder, item));
+		}
+	}
+
+	void invalidateAll() {
+		synchronized (entries) {
+			generation.incrementAndGet();
+			entries.clear();
+		}
+	}
+
+	private static boolean isSelfOrDescendant(Item candidate, Item item) {
+		for (Object current = candidate; current instanceof Item; current = ((Item) current).getParent()) {
+			if (current == item) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Extension
+	public static class FolderItemListener extends ItemListener {
+
+		@Override
+		public void onUpdated(Item item) {
+			if (item instanceof AbstractFolder) {
+				getInstance().invalidate(item);
+			}
+		}
+
+		@Override
+		public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+			if (item instanceof AbstractFolder) {
+				getInstance().invalidate(item);
+			}
+		}
+
+		@Override
+		public void onDeleted(Item item) {
+			if (item instanceof AbstractFolder) {
+				getInstance().invalidate(item);
+			}
+		}
+
+	}
+
+	/**
+	 * Catches the properties changed without the configuration form, folders being saved
+	 * after any change.
+	 */
+	@Extension
+	public static class FolderSaveableListener extends SaveableListener {
+
+		@Override
+		public void onChange(Saveable o, XmlFile file) {
+			if (o instanceof AbstractFolder) {
+				getInstance().invalidate((AbstractFolder<?>) o);
+			}
+		}
+
+	}
+
+}
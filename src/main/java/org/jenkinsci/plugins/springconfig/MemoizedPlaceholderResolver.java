@@ -0,0 +1,175 @@
+package org.jenkinsci.plugins.springconfig;
+
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.env.PropertySources;
+import org.springframework.util.PropertyPlaceholderHelper;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Resolves the {@code ${...}} placeholders of flattened properties like
+ * {@code Environment.resolvePlaceholders} does, but resolves each referenced property
+ * once.
+ * <p>
+ * Unresolvable placeholders are left as is. A circular reference fails with the whole
+ * cycle in the message. When the
+ * {@code org.jenkinsci.plugins.springconfig.MemoizedPlaceholderResolver.parallel} system property
+ * is set, properties which don't reference each other, directly or not, are resolved in
+ * parallel.
+ * <p>
+ * The {@code random.*} properties, and those referencing them, directly or not, aren't
+ * memoized: like with the {@code Environment}, every reference gets a new value.
+ */
+final class MemoizedPlaceholderResolver {
+
+	static final boolean PARALLEL = Boolean
+			.getBoolean(MemoizedPlaceholderResolver.class.getName() + ".parallel");
+
+	private static final String RANDOM_PREFIX = "random.";
+
+	private static final PropertyPlaceholderHelper HELPER = new PropertyPlaceholderHelper("${", "}", ":", true);
+
+	private final PropertySources propertySources;
+
+	private final boolean parallel;
+
+	private final Map<String, Optional<String>> resolved = new ConcurrentHashMap<>();
+
+	MemoizedPlaceholderResolver(PropertySources propertySources) {
+		this(propertySources, PARALLEL);
+	}
+
+	/**
+	 * @param parallel whether to resolve the independent properties in parallel
+	 */
+	MemoizedPlaceholderResolver(PropertySources propertySources, boolean parallel) {
+		this.propertySources = propertySources;
+		this.parallel = parallel;
+	}
+
+	/**
+	 * Resolves the placeholders in the values of the given properties.
+	 */
+	Map<String, String> resolveAll(Map<String, Object> properties) {
+		if (!parallel) {
+			Map<String, String> result = new HashMap<>();
+			properties.forEach((key, value) -> result.put(key, resolve(String.valueOf(value))));
+			return result;
+		}
+		return components(properties).parallelStream().flatMap(component -> {
+			Map<String, String> result = new HashMap<>();
+			component.forEach(key -> result.put(key, resolve(String.valueOf(properties.get(key)))));
+			return result.entrySet().stream();
+		}).collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+	}
+
+	String resolve(String text) {
+		return resolve(text, new Resolution());
+	}
+
+	private String resolve(String text, Resolution resolution) {
+		if (!text.contains("${")) {
+			return text;
+		}
+		return HELPER.replacePlaceholders(text, name -> lookup(name, resolution));
+	}
+
+	private String lookup(String name, Resolution resolution) {
+		Optional<String> value = resolved.get(name);
+		if (value != null) {
+			return value.orElse(null);
+		}
+		Deque<String> path = resolution.path;
+		if (path.contains(name)) {
+			List<String> cycle = new ArrayList<>(path);
+			cycle = new ArrayList<>(cycle.subList(cycle.indexOf(name), cycle.size()));
+			cycle.add(name);
+			throw new IllegalArgumentException("Circular placeholder reference: " + String.join(" -> ", cycle));
+		}
+		boolean random = name.startsWith(RANDOM_PREFIX);
+		Object raw = rawProperty(name);
+		if (raw == null) {
+			if (!random) {
+				resolved.put(name, Optional.empty());
+			}
+			return null;
+		}
+		boolean outerRandom = resolution.random;
+		resolution.random = random;
+		path.addLast(name);
+		try {
+			String resolvedValue = resolve(String.valueOf(raw), resolution);
+			if (!resolution.random) {
+				resolved.put(name, Optional.of(resolvedValue));
+			}
+			return resolvedValue;
+		}
+		finally {
+			path.removeLast();
+			resolution.random |= outerRandom;
+		}
+	}
+
+	private Object rawProperty(String name) {
+		for (PropertySource<?> propertySource : propertySources) {
+			Object value = propertySource.getProperty(name);
+			if (value != null) {
+				return value;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Groups the keys into the connected components of the placeholder reference graph.
+	 */
+	private static Collection<List<String>> components(Map<String, Object> properties) {
+		Map<String, String> parents = new HashMap<>();
+		properties.keySet().forEach(key -> parents.put(key, key));
+		properties.forEach((key, value) -> {
+			String text = String.valueOf(value);
+			if (text.contains("${")) {
+				HELPER.replacePlaceholders(text, name -> {
+					if (parents.containsKey(name)) {
+						parents.put(root(parents, key), root(parents, name));
+					}
+					return null;
+				});
+			}
+		});
+		return properties.keySet().stream().collect(Collectors.groupingBy(key -> root(parents, key))).values();
+	}
+
+	/**
+	 * The state of the resolution of one value.
+	 */
+	private static final class Resolution {
+
+		private final Deque<String> path = new ArrayDeque<>();
+
+		/**
+		 * Whether the property being resolved references a {@code random.*} one, directly or
+		 * not.
+		 */
+		private boolean random;
+
+	}
+
+	private static String root(Map<String, String> parents, String key) {
+		String root = key;
+		while (!root.equals(parents.get(root))) {
+			root = parents.get(root);
+		}
+		// Path compression
+		String current = key;
+		while (!current.equals(root)) {
+			String next = parents.get(current);
+			parents.put(current, root);
+			current = next;
+		}
+		return root;
+	}
+
+}
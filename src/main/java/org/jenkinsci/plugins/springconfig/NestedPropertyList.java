@@ -0,0 +1,112 @@
+package org.jenkinsci.plugins.springconfig;
+
+import org.jenkinsci.plugins.springconfig.NestedPropertyMap.Subtree;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * The list counterpart of {@link NestedPropertyMap}, over keys relative to the list such
+ * as {@code [0].c}. Missing indexes are {@code null}, if an index holds a value and nested
+ * keys the value wins.
+ */
+final class NestedPropertyList extends AbstractList<Object> implements RandomAccess, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Map<String, String> properties;
+
+	private transient List<Object> elements;
+
+	NestedPropertyList(Map<String, String> properties) {
+		this.properties = properties;
+	}
+
+	@Override
+	public synchronized Object get(int index) {
+		Object value = elements().get(index);
+		if (value instanceof Subtree) {
+			value = ((Subtree) value).build();
+			elements.set(index, value);
+		}
+		return value;
+	}
+
+	@Override
+	public synchronized int size() {
+		return elements().size();
+	}
+
+	@Override
+	public synchronized Object set(int index, Object element) {
+		Object previous = get(index);
+		elements.set(index, element);
+		return previous;
+	}
+
+	@Override
+	public synchronized void add(int index, Object element) {
+		elements().add(index, element);
+		modCount++;
+	}
+
+	@Override
+	public synchronized Object remove(int index) {
+		Object previous = get(index);
+		elements.remove(index);
+		modCount++;
+		return previous;
+	}
+
+	private List<Object> elements() {
+		if (elements == null) {
+			Map<Integer, String> leaves = new HashMap<>();
+			Map<Integer, Map<String, String>> maps = new HashMap<>();
+			Map<Integer, Map<String, String>> lists = new HashMap<>();
+			int size = 0;
+			for (Map.Entry<String, String> entry : properties.entrySet()) {
+				String key = entry.getKey();
+				int close = key.indexOf(']');
+				if (!key.startsWith("[") || close < 2 || close > 10 || !isDigits(key, 1, close)) {
+					continue;
+				}
+				int index = Integer.parseInt(key.substring(1, close));
+				String rest = key.substring(close + 1);
+				if (rest.isEmpty()) {
+					leaves.put(index, entry.getValue());
+				}
+				else if (rest.charAt(0) == '.') {
+					maps.computeIfAbsent(index, i -> new LinkedHashMap<>()).put(rest.substring(1), entry.getValue());
+				}
+				else if (rest.charAt(0) == '[') {
+					lists.computeIfAbsent(index, i -> new LinkedHashMap<>()).put(rest, entry.getValue());
+				}
+				else {
+					continue;
+				}
+				size = Math.max(size, index + 1);
+			}
+			List<Object> built = new ArrayList<>(Collections.nCopies(size, null));
+			maps.forEach((index, children) -> built.set(index, new Subtree(children, false)));
+			lists.forEach((index, children) -> built.set(index, new Subtree(children, true)));
+			leaves.forEach(built::set);
+			elements = built;
+		}
+		return elements;
+	}
+
+	private static boolean isDigits(String key, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (!Character.isDigit(key.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private Object writeReplace() throws ObjectStreamException {
+		return new ArrayList<>(this);
+	}
+
+}
@@ -0,0 +1,148 @@
+package org.jenkinsci.plugins.springconfig;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A nested map view over flattened property keys such as {@code a.b[0].c}.
+ * <p>
+ * The view indexes the first segment of its keys the first time it is accessed, so
+ * {@link #get} and {@link #containsKey} are hash lookups. Nested maps and lists are only
+ * built when they are read and are then kept in the index.
+ * <p>
+ * If a key is both a value and the parent of other keys, like {@code org.x} and
+ * {@code org.x.y}, the value wins and the nested keys are kept at this level with their
+ * compound name, here {@code x.y} in the {@code org} map.
+ * <p>
+ * Serialized views are replaced by plain {@link LinkedHashMap}s and {@link java.util.ArrayList}s.
+ */
+final class NestedPropertyMap extends AbstractMap<String, Object> implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Map<String, String> properties;
+
+	private transient Map<String, Object> index;
+
+	/**
+	 * @param properties the flattened properties, relative to this map
+	 */
+	NestedPropertyMap(Map<String, String> properties) {
+		this.properties = properties;
+	}
+
+	@Override
+	public synchronized Object get(Object key) {
+		Object value = index().get(key);
+		if (value instanceof Subtree) {
+			value = ((Subtree) value).build();
+			index.put((String) key, value);
+		}
+		return value;
+	}
+
+	@Override
+	public synchronized boolean containsKey(Object key) {
+		return index().containsKey(key);
+	}
+
+	@Override
+	public synchronized Object put(String key, Object value) {
+		Object previous = get(key);
+		index.put(key, value);
+		return previous;
+	}
+
+	@Override
+	public synchronized int size() {
+		return index().size();
+	}
+
+	@Override
+	public synchronized Set<Entry<String, Object>> entrySet() {
+		index().replaceAll((key, value) -> value instanceof Subtree ? ((Subtree) value).build() : value);
+		return index.entrySet();
+	}
+
+	private Map<String, Object> index() {
+		if (index == null) {
+			Map<String, Object> leaves = new LinkedHashMap<>();
+			Map<String, Map<String, String>> maps = new LinkedHashMap<>();
+			Map<String, Map<String, String>> lists = new LinkedHashMap<>();
+			for (Entry<String, String> entry : properties.entrySet()) {
+				String key = entry.getKey();
+				int end = segmentEnd(key);
+				if (end == key.length() || end == 0) {
+					leaves.put(key, entry.getValue());
+				}
+				else if (key.charAt(end) == '.') {
+					maps.computeIfAbsent(key.substring(0, end), segment -> new LinkedHashMap<>())
+							.put(key.substring(end + 1), entry.getValue());
+				}
+				else {
+					lists.computeIfAbsent(key.substring(0, end), segment -> new LinkedHashMap<>())
+							.put(key.substring(end), entry.getValue());
+				}
+			}
+			Map<String, Object> built = new LinkedHashMap<>(leaves);
+			addSubtrees(built, maps, false, ".");
+			addSubtrees(built, lists, true, "");
+			index = built;
+		}
+		return index;
+	}
+
+	private static void addSubtrees(Map<String, Object> index, Map<String, Map<String, String>> subtrees,
+			boolean list, String separator) {
+		subtrees.forEach((segment, children) -> {
+			if (index.containsKey(segment)) {
+				children.forEach((child, value) -> index.putIfAbsent(segment + separator + child, value));
+			}
+			else {
+				index.put(segment, new Subtree(children, list));
+			}
+		});
+	}
+
+	/**
+	 * Position of the first {@code .} or {@code [} of the key, or its length.
+	 */
+	static int segmentEnd(String key) {
+		for (int i = 0; i < key.length(); i++) {
+			char c = key.charAt(i);
+			if (c == '.' || c == '[') {
+				return i;
+			}
+		}
+		return key.length();
+	}
+
+	private Object writeReplace() throws ObjectStreamException {
+		return new LinkedHashMap<>(this);
+	}
+
+	/**
+	 * Properties below one key, not yet turned into a view.
+	 */
+	static final class Subtree {
+
+		private final Map<String, String> properties;
+
+		private final boolean list;
+
+		Subtree(Map<String, String> properties, boolean list) {
+			this.properties = properties;
+			this.list = list;
+		}
+
+		Object build() {
+			return list ? new NestedPropertyList(properties) : new NestedPropertyMap(properties);
+		}
+
+	}
+
+}
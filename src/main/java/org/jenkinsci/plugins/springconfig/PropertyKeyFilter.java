@@ -0,0 +1,92 @@
+package org.jenkinsci.plugins.springconfig;
+
+import com.google.common.collect.ImmutableList;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Selects the flattened property keys kept in an {@link EnvironmentWrapper}.
+ * <p>
+ * A pattern containing {@code *} or {@code ?} is a glob matched against the whole key,
+ * {@code *} matching any characters including dots. Any other pattern is a prefix matching
+ * the key itself and everything nested below it, so {@code app.image} matches
+ * {@code app.image}, {@code app.image.tag} and {@code app.image[0]} but not
+ * {@code app.images}. A key is kept if it matches one of the includes, or there are no
+ * includes, and none of the excludes.
+ * <p>
+ * Immutable, one filter is shared by the directories resolved in parallel.
+ */
+public final class PropertyKeyFilter implements Predicate<String>, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final PropertyKeyFilter ALL = new PropertyKeyFilter(Collections.emptyList(),
+			Collections.emptyList());
+
+	private final List<String> includes;
+
+	private final List<String> excludes;
+
+	private final transient List<Predicate<String>> includeMatchers;
+
+	private final transient List<Predicate<String>> excludeMatchers;
+
+	public PropertyKeyFilter(List<String> includes, List<String> excludes) {
+		this.includes = includes == null ? ImmutableList.of() : ImmutableList.copyOf(includes);
+		this.excludes = excludes == null ? ImmutableList.of() : ImmutableList.copyOf(excludes);
+		this.includeMatchers = matchers(this.includes);
+		this.excludeMatchers = matchers(this.excludes);
+	}
+
+	/**
+	 * The copy sent to the agent builds its matchers again.
+	 */
+	private Object readResolve() {
+		return new PropertyKeyFilter(includes, excludes);
+	}
+
+	public boolean isAll() {
+		return includes.isEmpty() && excludes.isEmpty();
+	}
+
+	@Override
+	public boolean test(String key) {
+		return (includeMatchers.isEmpty() || includeMatchers.stream().anyMatch(matcher -> matcher.test(key)))
+				&& excludeMatchers.stream().noneMatch(matcher -> matcher.test(key));
+	}
+
+	private static List<Predicate<String>> matchers(List<String> patterns) {
+		return patterns.stream().map(PropertyKeyFilter::matcher).collect(ImmutableList.toImmutableList());
+	}
+
+	private static Predicate<String> matcher(String pattern) {
+		if (pattern.indexOf('*') < 0 && pattern.indexOf('?') < 0) {
+			return key -> key.startsWith(pattern) && (key.length() == pattern.length()
+					|| key.charAt(pattern.length()) == '.' || key.charAt(pattern.length()) == '[');
+		}
+		StringBuilder regex = new StringBuilder();
+		for (String literal : pattern.split("(?=[*?])|(?<=[*?])")) {
+			if (literal.equals("*")) {
+				regex.append(".*");
+			}
+			else if (literal.equals("?")) {
+				regex.append('.');
+			}
+			else if (!literal.isEmpty()) {
+				regex.append(Pattern.quote(literal));
+			}
+		}
+		Pattern compiled = Pattern.compile(regex.toString());
+		return key -> compiled.matcher(key).matches();
+	}
+
+	@Override
+	public String toString() {
+		return "include=" + includes + ", exclude=" + excludes;
+	}
+
+}
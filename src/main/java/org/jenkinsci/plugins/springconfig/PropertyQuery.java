@@ -0,0 +1,244 @@
+package org.jenkinsci.plugins.springconfig;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import org.apache.commons.lang.StringUtils;
+import org.kohsuke.stapler.StaplerRequest;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Filters and pages the properties of a {@link SpringConfigAction}, read from the
+ * {@code profiles}, {@code q}, {@code mode}, {@code start} and {@code limit} request
+ * parameters.
+ * <p>
+ * A property matches if its key or its value matches {@code q}, case sensitively, as a
+ * prefix, a substring (the default) or a regular expression found in it. {@code profiles}
+ * restricts the result to one recorded config, an empty {@code profiles} to the config
+ * without profiles.
+ * <p>
+ * Regular expressions are limited to {@value #MAX_PATTERN_LENGTH} characters and the
+ * matching of a query to {@value #MATCH_TIMEOUT_MILLIS} ms, so a pattern backtracking
+ * catastrophically doesn't hold the request thread. A query running out of time matches
+ * nothing more and reports an error.
+ */
+@Getter
+public final class PropertyQuery {
+
+	static final int DEFAULT_LIMIT = 100;
+
+	static final int MAX_LIMIT = 10_000;
+
+	static final int MAX_PATTERN_LENGTH = 256;
+
+	static final long MATCH_TIMEOUT_MILLIS = 2000;
+
+	public enum Mode {
+
+		PREFIX, SUBSTRING, REGEX
+
+	}
+
+	/**
+	 * The only profiles to return, {@code null} for all, empty for the config without
+	 * profiles.
+	 */
+	private final String profiles;
+
+	private final String text;
+
+	private final Mode mode;
+
+	private final int start;
+
+	private final int limit;
+
+	@Getter(AccessLevel.NONE)
+	private final String error;
+
+	@Getter(AccessLevel.NONE)
+	private final Predicate<String> matcher;
+
+	@Getter(AccessLevel.NONE)
+	private final long deadline;
+
+	@Getter(AccessLevel.NONE)
+	private volatile boolean timedOut;
+
+	PropertyQuery(String profiles, String text, Mode mode, int start, int limit) {
+		this(profiles, text, mode, start, limit, null);
+	}
+
+	private PropertyQuery(String profiles, String text, Mode mode, int start, int limit, String error) {
+		this.profiles = profiles;
+		this.text = text == null ? "" : text;
+		this.mode = mode;
+		this.start = Math.max(start, 0);
+		this.limit = limit <= 0 ? DEFAULT_LIMIT : Math.min(limit, MAX_LIMIT);
+		this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MATCH_TIMEOUT_MILLIS);
+		String invalid = error;
+		Predicate<String> predicate;
+		if (invalid != null) {
+			predicate = value -> false;
+		}
+		else if (this.text.isEmpty()) {
+			predicate = value -> true;
+		}
+		else if (mode == Mode.PREFIX) {
+			predicate = value -> value.startsWith(this.text);
+		}
+		else if (mode == Mode.REGEX && this.text.length() > MAX_PATTERN_LENGTH) {
+			invalid = "Invalid regular expression: longer than " + MAX_PATTERN_LENGTH + " characters";
+			predicate = value -> false;
+		}
+		else if (mode == Mode.REGEX) {
+			try {
+				Pattern pattern = Pattern.compile(this.text);
+				predicate = value -> find(pattern, value);
+			}
+			catch (PatternSyntaxException e) {
+				invalid = "Invalid regular expression: " + e.getDescription();
+				predicate = value -> false;
+			}
+		}
+		else {
+			predicate = value -> value.contains(this.text);
+		}
+		this.error = invalid;
+		this.matcher = predicate;
+	}
+
+	static PropertyQuery from(StaplerRequest request) {
+		String mode = StringUtils.defaultIfEmpty(request.getParameter("mode"), Mode.SUBSTRING.name());
+		try {
+			return new PropertyQuery(StringUtils.trim(request.getParameter("profiles")),
+					request.getParameter("q"), Mode.valueOf(mode.toUpperCase(Locale.ROOT)),
+					parseInt(request.getParameter("start"), 0), parseInt(request.getParameter("limit"), 0));
+		}
+		catch (IllegalArgumentException e) {
+			return new PropertyQuery(null, "", Mode.SUBSTRING, 0, 0, "Invalid parameters: " + e.getMessage());
+		}
+	}
+
+	private static int parseInt(String value, int defaultValue) {
+		return StringUtils.isBlank(value) ? defaultValue : Integer.parseInt(value.trim());
+	}
+
+	/**
+	 * Why the parameters are invalid or the matching stopped, in which case nothing
+	 * matches.
+	 */
+	public String getError() {
+		if (error == null && timedOut) {
+			return "The regular expression took longer than " + MATCH_TIMEOUT_MILLIS + " ms to match";
+		}
+		return error;
+	}
+
+	private boolean find(Pattern pattern, String value) {
+		if (timedOut) {
+			return false;
+		}
+		try {
+			return pattern.matcher(new DeadlineCharSequence(value, deadline)).find();
+		}
+		catch (DeadlineExceededException e) {
+			timedOut = true;
+			return false;
+		}
+	}
+
+	boolean acceptsProfiles(String profiles) {
+		return this.profiles == null || this.profiles.equals(profiles);
+	}
+
+	boolean matches(String key, Object value) {
+		return matcher.test(key) || (value != null && matcher.test(value.toString()));
+	}
+
+	/**
+	 * The query string of the same query starting at another index, for paging links.
+	 */
+	public String toQueryString(String profiles, int start) {
+		StringBuilder query = new StringBuilder();
+		if (profiles != null) {
+			query.append("profiles=").append(encode(profiles)).append('&');
+		}
+		if (!text.isEmpty()) {
+			query.append("q=").append(encode(text)).append('&');
+		}
+		query.append("mode=").append(mode.name().toLowerCase(Locale.ROOT));
+		query.append("&start=").append(Math.max(start, 0)).append("&limit=").append(limit);
+		return query.toString();
+	}
+
+	/**
+	 * Lets a regular expression be aborted: the matcher reads its input through
+	 * {@link #charAt}, which fails once the deadline has passed.
+	 */
+	private static final class DeadlineCharSequence implements CharSequence {
+
+		private final CharSequence text;
+
+		private final long deadline;
+
+		private int reads;
+
+		DeadlineCharSequence(CharSequence text, long deadline) {
+			this.text = text;
+			this.deadline = deadline;
+		}
+
+		@Override
+		public char charAt(int index) {
+			// Checking the clock on every read would slow down the matching
+			if ((++reads & 0xFFF) == 0 && System.nanoTime() - deadline > 0) {
+				throw new DeadlineExceededException();
+			}
+			return text.charAt(index);
+		}
+
+		@Override
+		public int length() {
+			return text.length();
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return new DeadlineCharSequence(text.subSequence(start, end), deadline);
+		}
+
+		@Override
+		public String toString() {
+			return text.toString();
+		}
+
+	}
+
+	private static final class DeadlineExceededException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		DeadlineExceededException() {
+			super(null, null, false, false);
+		}
+
+	}
+
+	private static String encode(String value) {
+		try {
+			return URLEncoder.encode(value, StandardCharsets.UTF_8.name());
+		}
+		catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
@@ -0,0 +1,340 @@
+package org.jenkinsci.plugins.springconfig;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.AdministrativeMonitor;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+import lombok.Getter;
+import lombok.extern.java.Log;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerResponse;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+
+import javax.annotation.CheckForNull;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+/**
+ * Estimates the heap the configs recorded by {@link SpringConfigAction} retain once their
+ * builds are loaded, from the {@code build.xml} of every build read as text and the size
+ * of the maps of the {@link RecordedConfigStore}. Warns when the estimate is above the
+ * {@code org.jenkinsci.plugins.springconfig.RecordedConfigMonitor.warningThreshold}
+ * system property, in bytes, 256MB by default.
+ * <p>
+ * The estimate is computed daily or on demand. Its page shows the largest jobs and builds
+ * and drops, or moves to the store, the configs of builds older than a number of days.
+ * Those builds are loaded one at a time.
+ */
+@Log
+@Extension
+public class RecordedConfigMonitor extends AdministrativeMonitor {
+
+	static final long WARNING_THRESHOLD = SystemProperties
+			.getLong(RecordedConfigMonitor.class.getName() + ".warningThreshold", 256L << 20);
+
+	/**
+	 * The number of jobs and of builds shown.
+	 */
+	static final int TOP = 20;
+
+	private volatile Footprint footprint;
+
+	private volatile String status;
+
+	private final AtomicBoolean busy = new AtomicBoolean();
+
+	static RecordedConfigMonitor get() {
+		return ExtensionList.lookupSingleton(RecordedConfigMonitor.class);
+	}
+
+	@Override
+	public String getDisplayName() {
+		return "Spring Config Footprint";
+	}
+
+	@Override
+	public boolean isActivated() {
+		Footprint current = footprint;
+		return current != null && current.getRetainedBytes() > WARNING_THRESHOLD;
+	}
+
+	public long getWarningThreshold() {
+		return WARNING_THRESHOLD;
+	}
+
+	/**
+	 * The latest estimate, {@code null} until computed.
+	 */
+	@CheckForNull
+	public Footprint getFootprint() {
+		return footprint;
+	}
+
+	/**
+	 * The outcome of the latest clean up.
+	 */
+	@CheckForNull
+	public String getStatus() {
+		return status;
+	}
+
+	public boolean isBusy() {
+		return busy.get();
+	}
+
+	/**
+	 * Computes the estimate now, unless a scan or a clean up is running.
+	 */
+	void refresh() {
+		if (busy.compareAndSet(false, true)) {
+			try {
+				footprint = Footprint.compute();
+			}
+			catch (IOException | RuntimeException e) {
+				log.log(Level.WARNING, "Failed to estimate the Spring config footprint", e);
+			}
+			finally {
+				busy.set(false);
+			}
+		}
+	}
+
+	@RequirePOST
+	public void doRescan(StaplerResponse response) throws IOException {
+		Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+		Timer.get().submit(this::refresh);
+		response.sendRedirect(".");
+	}
+
+	/**
+	 * @param operation {@code drop} to remove the configs of the builds, {@code externalize}
+	 * to move the configs still kept by {@code build.xml} to the store
+	 */
+	@RequirePOST
+	public void doCleanUp(StaplerResponse response, @QueryParameter int olderThanDays,
+			@QueryParameter String operation) throws IOException {
+		Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+		boolean drop = "drop".equals(operation);
+		if (!drop && !"externalize".equals(operation)) {
+			response.sendError(400, "Unknown operation " + operation + ", expected drop or externalize");
+			return;
+		}
+		if (olderThanDays < 0) {
+			response.sendError(400, "The number of days can't be negative");
+			return;
+		}
+		long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(olderThanDays);
+		Timer.get().submit(() -> {
+			if (busy.compareAndSet(false, true)) {
+				try {
+					status = cleanUp(cutoff, drop);
+				}
+				finally {
+					busy.set(false);
+				}
+				refresh();
+			}
+		});
+		response.sendRedirect(".");
+	}
+
+	/**
+	 * Loads the builds started before the cutoff one by one, skipping those without
+	 * configs to drop or to move.
+	 * @return what was done
+	 */
+	String cleanUp(long cutoff, boolean drop) {
+		int[] counts = new int[2];
+		try {
+			RecordedConfigStore.scanBuilds(build -> {
+				if (build.getNumber() < 0 || build.getTimestamp() == 0 || build.getTimestamp() >= cutoff
+						|| (drop ? !build.hasConfigs() : !build.isNotMigrated())) {
+					return;
+				}
+				Run<?, ?> run = build.getJob().getBuildByNumber(build.getNumber());
+				if (run == null || run.isBuilding()) {
+					return;
+				}
+				try {
+					// Loading the build moves its configs to the store
+					if (drop) {
+						run.removeActions(SpringConfigAction.class);
+						run.save();
+					}
+					else {
+						SpringConfigAction action = run.getAction(SpringConfigAction.class);
+						if (action != null) {
+							action.flush();
+						}
+					}
+					counts[0]++;
+				}
+				catch (IOException | RuntimeException e) {
+					counts[1]++;
+					log.log(Level.WARNING, "Failed to clean up the Spring config of " + run, e);
+				}
+			});
+			if (drop) {
+				RecordedConfigStore.getInstance().sweep();
+			}
+		}
+		catch (IOException e) {
+			log.log(Level.WARNING, "Failed to clean up the Spring configs", e);
+			return "Failed: " + e;
+		}
+		return String.format("%s the configs of %d builds, %d failures", drop ? "Dropped" : "Moved to the store",
+				counts[0], counts[1]);
+	}
+
+	/**
+	 * The estimated heap retained by the recorded configs.
+	 */
+	@Getter
+	public static class Footprint {
+
+		private final Date computedAt = new Date();
+
+		/**
+		 * The builds with configs.
+		 */
+		private int buildCount;
+
+		/**
+		 * The builds keeping their configs in {@code build.xml}.
+		 */
+		private int notMigratedCount;
+
+		/**
+		 * The heap retained if every build is loaded, the builds sharing identical configs.
+		 */
+		private long retainedBytes;
+
+		private final List<Usage> topJobs = new ArrayList<>();
+
+		private final List<Usage> topBuilds = new ArrayList<>();
+
+		static Footprint compute() throws IOException {
+			RecordedConfigStore store = RecordedConfigStore.getInstance();
+			Footprint footprint = new Footprint();
+			Map<String, Usage> jobs = new HashMap<>();
+			Map<String, Set<String>> jobHashes = new HashMap<>();
+			Set<String> hashes = new HashSet<>();
+			// Dropped with the scan
+			Map<String, Long> sizes = new HashMap<>();
+			PriorityQueue<Usage> builds = new PriorityQueue<>(Comparator.comparingLong(Usage::getBytes));
+			RecordedConfigStore.scanBuilds(build -> {
+				if (!build.hasConfigs()) {
+					return;
+				}
+				// Display names are not unique, they only label the usages
+				String jobName = build.getJob().getFullDisplayName();
+				Usage job = jobs.computeIfAbsent(build.getJob().getFullName(),
+						name -> new Usage(jobName, build.getJob().getUrl()));
+				Set<String> ownHashes = jobHashes.computeIfAbsent(build.getJob().getFullName(),
+						name -> new HashSet<>());
+				long bytes = 0;
+				long notMigratedBytes = 0;
+				for (String hash : build.getHashes()) {
+					long size = sizes.computeIfAbsent(hash, key -> estimateSize(store, key));
+					bytes += size;
+					if (hashes.add(hash)) {
+						footprint.retainedBytes += size;
+					}
+					if (ownHashes.add(hash)) {
+						job.bytes += size;
+					}
+				}
+				if (build.isNotMigrated()) {
+					footprint.notMigratedCount++;
+					notMigratedBytes = estimateNotMigratedSize(build);
+					bytes += notMigratedBytes;
+					footprint.retainedBytes += notMigratedBytes;
+					job.bytes += notMigratedBytes;
+				}
+				job.builds++;
+				footprint.buildCount++;
+				builds.add(new Usage(jobName + " #" + build.getDir().getName(),
+						build.getJob().getUrl() + build.getDir().getName() + "/", bytes, 1));
+				if (builds.size() > TOP) {
+					builds.poll();
+				}
+			});
+			footprint.topBuilds.addAll(builds);
+			footprint.topBuilds.sort(Comparator.comparingLong(Usage::getBytes).reversed());
+			jobs.values().stream().sorted(Comparator.comparingLong(Usage::getBytes).reversed()).limit(TOP)
+					.forEach(footprint.topJobs::add);
+			return footprint;
+		}
+
+		private static long estimateSize(RecordedConfigStore store, String hash) {
+			try {
+				return store.estimateSize(hash);
+			}
+			catch (IOException e) {
+				// Swept or not written, nothing is retained
+				return 0;
+			}
+		}
+
+		/**
+		 * The configs kept by {@code build.xml} are estimated from its size.
+		 */
+		private static long estimateNotMigratedSize(RecordedConfigStore.ScannedBuild build) {
+			return 2 * new File(build.getDir(), "build.xml").length();
+		}
+
+	}
+
+	@Getter
+	public static class Usage {
+
+		private final String name;
+
+		private final String url;
+
+		private long bytes;
+
+		private int builds;
+
+		Usage(String name, String url) {
+			this.name = name;
+			this.url = url;
+		}
+
+		Usage(String name, String url, long bytes, int builds) {
+			this(name, url);
+			this.bytes = bytes;
+			this.builds = builds;
+		}
+
+	}
+
+	@Extension
+	public static class Calculator extends AsyncPeriodicWork {
+
+		public Calculator() {
+			super("Spring config footprint calculator");
+		}
+
+		@Override
+		public long getRecurrencePeriod() {
+			return DAY;
+		}
+
+		@Override
+		protected void execute(TaskListener listener) {
+			get().refresh();
+		}
+
+	}
+
+}
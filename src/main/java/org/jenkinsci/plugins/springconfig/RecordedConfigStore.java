@@ -0,0 +1,432 @@
+package org.jenkinsci.plugins.springconfig;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.Job;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import lombok.extern.java.Log;
+
+import java.io.*;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content addressed storage of the properties recorded by {@link SpringConfigAction}, in
+ * {@code $JENKINS_HOME/spring-config/objects}.
+ * <p>
+ * Each distinct property map is written once, gzipped, under the SHA-256 of its canonical
+ * form (see {@link CompactPropertiesFormat#digest}) and builds only keep that hash. Maps
+ * read back are interned through soft references, so builds with the same config share
+ * one instance. Each object starts with the estimated heap size of its map, so the
+ * {@link RecordedConfigMonitor} reads no map.
+ * <p>
+ * Objects no longer referenced by any {@code build.xml} are deleted by a daily sweep.
+ * Objects written or reused during the last {@link #GRACE_PERIOD} are kept, their builds
+ * may not have been saved yet. Nothing is swept while an item failed to load, the builds
+ * of its jobs can't be scanned. Storing and deleting an object are serialized by hash, so
+ * an object reused while it is swept is either kept or written again.
+ */
+@Log
+final class RecordedConfigStore {
+
+	static final long GRACE_PERIOD = SystemProperties.getLong(RecordedConfigStore.class.getName() + ".gracePeriod",
+			TimeUnit.HOURS.toMillis(1));
+
+	private static final Pattern HASH_ELEMENT = Pattern.compile("<hash>([0-9a-f]{64})</hash>");
+
+	/**
+	 * The start of the build, a field of the run, not of one of its actions.
+	 */
+	private static final Pattern TIMESTAMP_ELEMENT = Pattern.compile("^  <timestamp>(\\d+)</timestamp>");
+
+	private static volatile RecordedConfigStore instance;
+
+	private final File root;
+
+	private final File objects;
+
+	private final Map<String, Interned> interned = new ConcurrentHashMap<>();
+
+	private final ReferenceQueue<Map<String, String>> queue = new ReferenceQueue<>();
+
+	/**
+	 * Serializes {@link #put} and {@link #sweep} on the same hash.
+	 */
+	private final Object[] locks = new Object[64];
+
+	RecordedConfigStore(File root) {
+		this.root = root;
+		this.objects = new File(root, "objects");
+		Arrays.setAll(locks, i -> new Object());
+	}
+
+	private Object lock(String hash) {
+		return locks[Math.floorMod(hash.hashCode(), locks.length)];
+	}
+
+	static RecordedConfigStore getInstance() {
+		File root = new File(Jenkins.get().getRootDir(), "spring-config");
+		RecordedConfigStore store = instance;
+		if (store == null || !store.root.equals(root)) {
+			synchronized (RecordedConfigStore.class) {
+				store = instance;
+				if (store == null || !store.root.equals(root)) {
+					// JENKINS_HOME only changes in tests
+					store = new RecordedConfigStore(root);
+					instance = store;
+				}
+			}
+		}
+		return store;
+	}
+
+	/**
+	 * Stores the properties if no identical map is stored yet.
+	 * @return the hash to read them back with
+	 */
+	String put(Map<String, String> properties) throws IOException {
+		String hash = CompactPropertiesFormat.digest(properties);
+		File file = getFile(hash);
+		synchronized (lock(hash)) {
+			if (file.isFile()) {
+				// Protects it from the next sweeps
+				file.setLastModified(System.currentTimeMillis());
+			}
+			else {
+				write(hash, file, properties);
+			}
+		}
+		intern(hash, new LinkedHashMap<>(properties));
+		return hash;
+	}
+
+	private static void write(String hash, File file, Map<String, String> properties) throws IOException {
+		File dir = file.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+			throw new IOException("Failed to create " + dir);
+		}
+		File tmp = File.createTempFile(hash, ".tmp", dir);
+		try {
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmp))))) {
+				out.writeLong(estimateSize(properties));
+				CompactPropertiesFormat.writeProperties(out, properties);
+			}
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		finally {
+			Files.deleteIfExists(tmp.toPath());
+		}
+	}
+
+	/**
+	 * @return the unmodifiable properties stored under the hash
+	 * @throws FileNotFoundException if nothing is stored under the hash
+	 */
+	Map<String, String> get(String hash) throws IOException {
+		Interned reference = interned.get(hash);
+		Map<String, String> properties = reference == null ? null : reference.get();
+		if (properties != null) {
+			return properties;
+		}
+		Map<String, String> read = new LinkedHashMap<>();
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new GZIPInputStream(new FileInputStream(getFile(hash)))))) {
+			// The estimated size
+			in.readLong();
+			CompactPropertiesFormat.readProperties(in, read);
+		}
+		return intern(hash, read);
+	}
+
+	private Map<String, String> intern(String hash, Map<String, String> properties) {
+		for (Interned cleared = (Interned) queue.poll(); cleared != null; cleared = (Interned) queue.poll()) {
+			interned.remove(cleared.hash, cleared);
+		}
+		Map<String, String> unmodifiable = Collections.unmodifiableMap(properties);
+		Interned[] result = new Interned[1];
+		interned.compute(hash, (key, existing) -> {
+			Map<String, String> current = existing == null ? null : existing.get();
+			if (current != null) {
+				result[0] = existing;
+				return existing;
+			}
+			result[0] = new Interned(hash, unmodifiable, queue);
+			return result[0];
+		});
+		Map<String, String> shared = result[0].get();
+		return shared == null ? unmodifiable : shared;
+	}
+
+	/**
+	 * The estimated heap size of the map stored under the hash once read, written at the
+	 * start of its file. The map is neither read nor interned.
+	 * @see #estimateSize(Map)
+	 */
+	long estimateSize(String hash) throws IOException {
+		try (DataInputStream in = new DataInputStream(new GZIPInputStream(new FileInputStream(getFile(hash))))) {
+			return in.readLong();
+		}
+	}
+
+	/**
+	 * A rough estimate of the heap retained by a map of properties: the entries of a
+	 * {@link LinkedHashMap} and strings of two bytes per character.
+	 */
+	static long estimateSize(Map<String, String> properties) {
+		long size = 64 + 8L * properties.size() * 4 / 3;
+		for (Map.Entry<String, String> entry : properties.entrySet()) {
+			size += 40 + estimateSize(entry.getKey()) + estimateSize(entry.getValue());
+		}
+		return size;
+	}
+
+	private static long estimateSize(String value) {
+		return value == null ? 0 : 40 + 2L * value.length();
+	}
+
+	File getFile(String hash) {
+		if (!hash.matches("[0-9a-f]{64}")) {
+			throw new IllegalArgumentException("Invalid hash " + hash);
+		}
+		return new File(new File(objects, hash.substring(0, 2)), hash + ".gz");
+	}
+
+	/**
+	 * Deletes the objects which are not live and were last written or reused before the
+	 * cutoff.
+	 * @return the number of deleted objects
+	 */
+	int sweep(Set<String> live, long cutoff) {
+		int deleted = 0;
+		File[] dirs = objects.listFiles(File::isDirectory);
+		for (File dir : dirs == null ? new File[0] : dirs) {
+			File[] files = dir.listFiles((parent, name) -> name.endsWith(".gz"));
+			for (File file : files == null ? new File[0] : files) {
+				String hash = file.getName().substring(0, file.getName().length() - ".gz".length());
+				if (live.contains(hash)) {
+					continue;
+				}
+				synchronized (lock(hash)) {
+					// Checked again, a put may have reused it since the listing
+					if (file.lastModified() < cutoff) {
+						interned.remove(hash);
+						if (file.delete()) {
+							deleted++;
+						}
+					}
+				}
+			}
+		}
+		return deleted;
+	}
+
+	/**
+	 * The hashes referenced by the {@code build.xml} of every build, read as text so no
+	 * build is loaded.
+	 */
+	static Set<String> referencedHashes() throws IOException {
+		Set<String> hashes = new HashSet<>();
+		scanBuilds(build -> hashes.addAll(build.getHashes()));
+		return hashes;
+	}
+
+	/**
+	 * Reads the {@code build.xml} of every build as text, one at a time, no build is
+	 * loaded.
+	 */
+	static void scanBuilds(Consumer<ScannedBuild> consumer) throws IOException {
+		for (Job<?, ?> job : Jenkins.get().allItems(Job.class)) {
+			File[] builds = job.getBuildDir()
+					.listFiles(file -> file.isDirectory() && !Files.isSymbolicLink(file.toPath()));
+			for (File build : builds == null ? new File[0] : builds) {
+				File buildXml = new File(build, "build.xml");
+				if (buildXml.isFile()) {
+					ScannedBuild scanned = new ScannedBuild(job, build);
+					try (BufferedReader reader = Files.newBufferedReader(buildXml.toPath(),
+							StandardCharsets.UTF_8)) {
+						for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+							scanned.scan(line);
+						}
+					}
+					consumer.accept(scanned);
+				}
+			}
+		}
+	}
+
+	void sweep() throws IOException {
+		List<File> unloaded = unloadedItems();
+		if (!unloaded.isEmpty()) {
+			log.warning(() -> "Not sweeping the Spring configs, the builds of items which failed to load may use them: "
+					+ unloaded);
+			return;
+		}
+		long start = System.currentTimeMillis();
+		// Collected before listing the objects, anything stored meanwhile is recent
+		Set<String> live = referencedHashes();
+		int deleted = sweep(live, start - GRACE_PERIOD);
+		log.fine(() -> String.format("Deleted %d unreferenced Spring configs in %d ms, %d referenced", deleted,
+				System.currentTimeMillis() - start, live.size()));
+	}
+
+	/**
+	 * The directories under {@code $JENKINS_HOME/jobs} holding the {@code config.xml} of an
+	 * item which isn't loaded.
+	 */
+	static List<File> unloadedItems() {
+		Map<File, Item> loaded = new HashMap<>();
+		for (Item item : Jenkins.get().allItems(Item.class)) {
+			loaded.put(item.getRootDir().getAbsoluteFile(), item);
+		}
+		List<File> unloaded = new ArrayList<>();
+		collectUnloadedItems(new File(Jenkins.get().getRootDir(), "jobs"), loaded, unloaded);
+		return unloaded;
+	}
+
+	private static void collectUnloadedItems(File dir, Map<File, Item> loaded, List<File> unloaded) {
+		File[] children = dir.listFiles(file -> file.isDirectory() && !Files.isSymbolicLink(file.toPath())
+				&& !file.getName().equals("builds"));
+		for (File child : children == null ? new File[0] : children) {
+			if (new File(child, "config.xml").isFile()) {
+				Item item = loaded.get(child.getAbsoluteFile());
+				if (item == null) {
+					unloaded.add(child);
+				}
+				else if (item instanceof ItemGroup) {
+					collectUnloadedItems(child, loaded, unloaded);
+				}
+			}
+			else {
+				// Holds the items of a folder, jobs or branches
+				collectUnloadedItems(child, loaded, unloaded);
+			}
+		}
+	}
+
+	/**
+	 * What a {@code build.xml} read as text says about the configs of its build.
+	 */
+	static final class ScannedBuild {
+
+		private final Job<?, ?> job;
+
+		private final File dir;
+
+		private final Set<String> hashes = new LinkedHashSet<>();
+
+		private boolean inline;
+
+		private long timestamp;
+
+		ScannedBuild(Job<?, ?> job, File dir) {
+			this.job = job;
+			this.dir = dir;
+		}
+
+		private void scan(String line) {
+			if (line.contains("<hash>")) {
+				Matcher matcher = HASH_ELEMENT.matcher(line);
+				while (matcher.find()) {
+					hashes.add(matcher.group(1));
+				}
+			}
+			if (line.contains("<allProperties")) {
+				inline = true;
+			}
+			if (timestamp == 0 && line.contains("<timestamp>")) {
+				Matcher matcher = TIMESTAMP_ELEMENT.matcher(line);
+				if (matcher.lookingAt()) {
+					timestamp = Long.parseLong(matcher.group(1));
+				}
+			}
+		}
+
+		Job<?, ?> getJob() {
+			return job;
+		}
+
+		File getDir() {
+			return dir;
+		}
+
+		/**
+		 * The build number, {@code -1} for a directory not named after it.
+		 */
+		int getNumber() {
+			try {
+				return Integer.parseInt(dir.getName());
+			}
+			catch (NumberFormatException e) {
+				return -1;
+			}
+		}
+
+		Set<String> getHashes() {
+			return hashes;
+		}
+
+		/**
+		 * Whether the build keeps its properties in {@code build.xml}, not migrated to the
+		 * store yet.
+		 */
+		boolean isNotMigrated() {
+			return inline;
+		}
+
+		boolean hasConfigs() {
+			return !hashes.isEmpty() || isNotMigrated();
+		}
+
+		long getTimestamp() {
+			return timestamp;
+		}
+
+	}
+
+	private static final class Interned extends SoftReference<Map<String, String>> {
+
+		private final String hash;
+
+		Interned(String hash, Map<String, String> properties, ReferenceQueue<Map<String, String>> queue) {
+			super(properties, queue);
+			this.hash = hash;
+		}
+
+	}
+
+	@Extension
+	public static class Sweeper extends AsyncPeriodicWork {
+
+		public Sweeper() {
+			super("Spring config store sweeper");
+		}
+
+		@Override
+		public long getRecurrencePeriod() {
+			return DAY;
+		}
+
+		@Override
+		protected void execute(TaskListener listener) throws IOException {
+			getInstance().sweep();
+		}
+
+	}
+
+}
@@ -0,0 +1,131 @@
+package org.jenkinsci.plugins.springconfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An LRU cache of resolved configs, living in the JVM which runs
+ * {@link SpringConfigStep.SpringProfileExecution.Execution}, usually an agent.
+ * <p>
+ * Entries are keyed by the step parameters and the size, modification time and SHA-256
+ * digest of every file the locations could contribute, so any change of a config file
+ * leads to a miss. The size is set with the
+ * {@code org.jenkinsci.plugins.springconfig.ResolvedConfigCache.maxSize} system property
+ * of the agent JVM, {@code 0} disables the cache.
+ */
+final class ResolvedConfigCache {
+
+	private static final ResolvedConfigCache INSTANCE = new ResolvedConfigCache(
+			Integer.getInteger(ResolvedConfigCache.class.getName() + ".maxSize", 64));
+
+	private final int maxSize;
+
+	private final Map<String, EnvironmentWrapper> entries;
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	ResolvedConfigCache(int maxSize) {
+		this.maxSize = maxSize;
+		this.entries = new LinkedHashMap<String, EnvironmentWrapper>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, EnvironmentWrapper> eldest) {
+				return size() > ResolvedConfigCache.this.maxSize;
+			}
+
+		};
+	}
+
+	static ResolvedConfigCache getInstance() {
+		return INSTANCE;
+	}
+
+	boolean isEnabled() {
+		return maxSize > 0;
+	}
+
+	EnvironmentWrapper get(String key) {
+		EnvironmentWrapper wrapper;
+		synchronized (entries) {
+			wrapper = entries.get(key);
+		}
+		(wrapper == null ? misses : hits).incrementAndGet();
+		return wrapper;
+	}
+
+	void put(String key, EnvironmentWrapper wrapper) {
+		synchronized (entries) {
+			entries.put(key, wrapper);
+		}
+	}
+
+	String getStatistics() {
+		int size;
+		synchronized (entries) {
+			size = entries.size();
+		}
+		return String.format("hits: %d, misses: %d, entries: %d/%d", hits.get(), misses.get(), size, maxSize);
+	}
+
+	/**
+	 * Computes the cache key, reading every candidate file of the locations.
+	 */
+	static String key(String parameters, List<String> locations, SpringConfigLoader.ConfigSource source)
+			throws IOException {
+		StringBuilder key = new StringBuilder(parameters).append('\n').append(source.environmentFingerprint());
+		for (String location : locations) {
+			key.append('\n').append(location);
+			for (String file : source.fingerprint(location)) {
+				key.append('\n').append(file);
+			}
+		}
+		return key.toString();
+	}
+
+	static String digest(File file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		byte[] buffer = new byte[8192];
+		try (InputStream in = Files.newInputStream(file.toPath())) {
+			for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+				digest.update(buffer, 0, read);
+			}
+		}
+		return hex(digest.digest());
+	}
+
+	static String digest(byte[] content) {
+		try {
+			return hex(MessageDigest.getInstance("SHA-256").digest(content));
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String hex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder();
+		for (byte b : bytes) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+}
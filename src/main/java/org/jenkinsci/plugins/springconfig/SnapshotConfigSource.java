@@ -0,0 +1,79 @@
+package org.jenkinsci.plugins.springconfig;
+
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.MutablePropertySources;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.core.env.SystemEnvironmentPropertySource;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Reads the config files from a {@link ConfigFilesSnapshot} and resolves them against the
+ * system properties and environment variables sent with it.
+ */
+final class SnapshotConfigSource implements SpringConfigLoader.ConfigSource {
+
+	private final ConfigFilesSnapshot snapshot;
+
+	private String environmentFingerprint;
+
+	SnapshotConfigSource(ConfigFilesSnapshot snapshot) {
+		this.snapshot = snapshot;
+	}
+
+	@Override
+	public boolean exists(String location) {
+		return snapshot.exists(location);
+	}
+
+	@Override
+	public Resource getResource(String path) {
+		byte[] content = snapshot.getContent(path);
+		return content == null ? null : new ByteArrayResource(content, describe(path));
+	}
+
+	@Override
+	public String describe(String path) {
+		return snapshot.getAbsolutePath(path);
+	}
+
+	@Override
+	public List<String> fingerprint(String location) {
+		List<String> fingerprint = new ArrayList<>();
+		for (String path : snapshot.getPaths(location)) {
+			byte[] content = snapshot.getContent(path);
+			fingerprint.add(path + ':' + content.length + ':' + ResolvedConfigCache.digest(content));
+		}
+		return fingerprint;
+	}
+
+	@Override
+	public StandardEnvironment newEnvironment() {
+		StandardEnvironment environment = new StandardEnvironment();
+		MutablePropertySources sources = environment.getPropertySources();
+		sources.replace(StandardEnvironment.SYSTEM_PROPERTIES_PROPERTY_SOURCE_NAME,
+				new MapPropertySource(StandardEnvironment.SYSTEM_PROPERTIES_PROPERTY_SOURCE_NAME,
+						new HashMap<>(snapshot.getSystemProperties())));
+		sources.replace(StandardEnvironment.SYSTEM_ENVIRONMENT_PROPERTY_SOURCE_NAME,
+				new SystemEnvironmentPropertySource(StandardEnvironment.SYSTEM_ENVIRONMENT_PROPERTY_SOURCE_NAME,
+						new HashMap<>(snapshot.getSystemEnvironment())));
+		return environment;
+	}
+
+	@Override
+	public synchronized String environmentFingerprint() {
+		if (environmentFingerprint == null) {
+			String environment = new TreeMap<>(snapshot.getSystemProperties()) + "\n"
+					+ new TreeMap<>(snapshot.getSystemEnvironment());
+			environmentFingerprint = ResolvedConfigCache.digest(environment.getBytes(StandardCharsets.UTF_8));
+		}
+		return environmentFingerprint;
+	}
+
+}
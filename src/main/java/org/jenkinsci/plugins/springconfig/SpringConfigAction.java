@@ -1,40 +1,189 @@
 package org.jenkinsci.plugins.springconfig;
 
+import hudson.Extension;
 import hudson.model.Api;
 import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
 import jenkins.model.RunAction2;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
 import lombok.Builder;
 import lombok.Getter;
 import lombok.Setter;
+import lombok.extern.java.Log;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONNull;
+import net.sf.json.JSONObject;
+import org.apache.commons.lang.StringUtils;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
 import org.kohsuke.stapler.export.Exported;
 import org.kohsuke.stapler.export.ExportedBean;
 
 import javax.annotation.CheckForNull;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import javax.annotation.Nonnull;
+import javax.servlet.http.HttpServletResponse;
+import java.io.*;
+import java.lang.ref.SoftReference;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.stream.Collectors;
 
+/**
+ * The configs recorded by {@code springConfig} in a build.
+ * <p>
+ * Only a {@link ConfigSummary} per profiles is kept in {@code build.xml}, the properties
+ * are stored once for all builds in the {@link RecordedConfigStore} and only read when the
+ * page or the API asks for them. The metrics of the calls are only kept in memory.
+ * <p>
+ * The action is safe to update from parallel branches. Each update schedules a save of
+ * the build after {@code org.jenkinsci.plugins.springconfig.SpringConfigAction.saveDelay}
+ * milliseconds (1000 by default), coalescing the saves of the updates done meanwhile. A
+ * pending save is done before the build completes.
+ */
+@Log
 @ExportedBean
 public class SpringConfigAction implements RunAction2 {
 
+	/**
+	 * The number of calls whose metrics are kept in memory for a build.
+	 */
+	static final int MAX_METRICS = 100;
+
+	static final long SAVE_DELAY = SystemProperties.getLong(SpringConfigAction.class.getName() + ".saveDelay",
+			1000L);
+
 	private Run run;
 
-	private final Map<String, Map<String, String>> allProperties = new HashMap();
+	/**
+	 * Where the properties were kept before they moved out of {@code build.xml}, only read
+	 * to migrate older builds.
+	 */
+	@Deprecated
+	private Map<String, Map<String, String>> allProperties;
+
+	/**
+	 * Replaced, never modified, so the build can be saved while it is updated.
+	 */
+	private volatile Map<String, ConfigSummary> summaries = new LinkedHashMap<>();
+
+	/**
+	 * The metrics of the latest calls, replaced like {@link #summaries}. Not saved, they are
+	 * printed to the build log and aggregated by {@link SpringConfigStatistics}.
+	 */
+	private transient volatile List<SpringConfigMetrics> metrics = Collections.emptyList();
+
+	private transient ScheduledFuture<?> pendingSave;
+
+	private transient volatile SoftReference<SortedView> sortedView;
+
+	/**
+	 * The action of the run, added if it has none yet.
+	 */
+	static SpringConfigAction getOrCreate(Run<?, ?> run) {
+		synchronized (run) {
+			SpringConfigAction action = run.getAction(SpringConfigAction.class);
+			if (action == null) {
+				action = new SpringConfigAction();
+				run.addAction(action);
+			}
+			return action;
+		}
+	}
+
+	public void addProperties(String profiles, Map<String, String> properties) throws IOException {
+		addProperties(Collections.singletonMap(profiles, properties));
+	}
+
+	/**
+	 * Records the properties of several profiles and schedules a save of the build.
+	 * @param properties the properties by profiles
+	 */
+	public void addProperties(Map<String, Map<String, String>> properties) throws IOException {
+		RecordedConfigStore store = RecordedConfigStore.getInstance();
+		Map<String, ConfigSummary> added = new LinkedHashMap<>();
+		for (Map.Entry<String, Map<String, String>> entry : properties.entrySet()) {
+			added.put(entry.getKey(), new ConfigSummary(entry.getValue().size(), store.put(entry.getValue())));
+		}
+		synchronized (this) {
+			Map<String, ConfigSummary> updated = new LinkedHashMap<>(summaries);
+			updated.putAll(added);
+			summaries = updated;
+		}
+		scheduleSave();
+	}
+
+	/**
+	 * Keeps the metrics of a call in memory, dropping the oldest beyond {@link #MAX_METRICS}.
+	 */
+	public synchronized void addMetrics(SpringConfigMetrics callMetrics) {
+		List<SpringConfigMetrics> updated = new ArrayList<>(getMetrics());
+		updated.add(callMetrics);
+		metrics = new ArrayList<>(updated.subList(Math.max(0, updated.size() - MAX_METRICS), updated.size()));
+	}
 
-	public void addProperties(String profiles, Map<String, String> properties) {
-		allProperties.put(profiles, properties);
+	private void scheduleSave() {
+		synchronized (this) {
+			if (run == null || pendingSave != null) {
+				return;
+			}
+			if (SAVE_DELAY > 0) {
+				pendingSave = Timer.get().schedule(this::flush, SAVE_DELAY, TimeUnit.MILLISECONDS);
+				return;
+			}
+		}
+		save();
+	}
+
+	/**
+	 * Saves the build now if a save is pending.
+	 */
+	void flush() {
+		synchronized (this) {
+			if (pendingSave == null) {
+				return;
+			}
+			pendingSave.cancel(false);
+			pendingSave = null;
+		}
+		save();
+	}
+
+	private void save() {
+		try {
+			run.save();
+		}
+		catch (IOException e) {
+			log.log(Level.WARNING, "Failed to save " + run, e);
+		}
 	}
 
 	@Override
-	public void onAttached(Run<?, ?> r) {
+	public synchronized void onAttached(Run<?, ?> r) {
 		this.run = r;
 	}
 
 	@Override
-	public void onLoad(Run<?, ?> r) {
+	public synchronized void onLoad(Run<?, ?> r) {
 		this.run = r;
+		if (summaries == null) {
+			summaries = new LinkedHashMap<>();
+		}
+		try {
+			// Saving the build is scheduled, it must reference the hashes before the store is swept
+			if (allProperties != null) {
+				addProperties(allProperties);
+				allProperties = null;
+			}
+		}
+		catch (IOException e) {
+			log.log(Level.WARNING, "Failed to migrate the Spring config of " + r, e);
+		}
 	}
 
 	@CheckForNull
@@ -59,20 +208,207 @@ public class SpringConfigAction implements RunAction2 {
 		return new Api(this);
 	}
 
-	@Exported(visibility = 2)
+	/**
+	 * The profiles, key count and content hash of each recorded config, available without
+	 * reading the properties.
+	 */
+	public Map<String, ConfigSummary> getSummaries() {
+		return Collections.unmodifiableMap(summaries);
+	}
+
+	/**
+	 * The time spent in each phase of the latest {@code springConfig} calls of the build,
+	 * empty once the build is loaded again.
+	 */
+	@Exported
+	public List<SpringConfigMetrics> getMetrics() {
+		List<SpringConfigMetrics> current = metrics;
+		// Null once the build is loaded again, the metrics are not saved
+		return current == null ? Collections.emptyList() : Collections.unmodifiableList(current);
+	}
+
+	/**
+	 * Only exported by the API of the action, not by the API of the build, the configs can
+	 * be large.
+	 */
+	@Exported
 	public Map<String, Map<String, String>> getProperties() {
-		return allProperties;
+		return Collections.unmodifiableMap(loadProperties());
 	}
 
 	public List<ProfileConfig> getAllProperties() {
-		return allProperties.entrySet().stream().map(profileProperties -> {
-			Map<String, String> properties = profileProperties.getValue();
-			List<KeyValue> propertiesAsList = properties.entrySet().stream()
-					.map(property -> KeyValue.builder().key(property.getKey()).value(property.getValue()).build())
-					.sorted(Comparator.comparing(KeyValue::getKey)).collect(Collectors.toList());
-			String profiles = profileProperties.getKey();
-			return ProfileConfig.builder().profiles(profiles).properties(propertiesAsList).build();
-		}).collect(Collectors.toList());
+		return sortedProperties().entrySet().stream()
+				.map(profileProperties -> ProfileConfig.builder().profiles(profileProperties.getKey())
+						.properties(profileProperties.getValue()).total(profileProperties.getValue().size()).build())
+				.collect(Collectors.toList());
+	}
+
+	public PropertyQuery parseQuery(StaplerRequest request) {
+		return PropertyQuery.from(request);
+	}
+
+	/**
+	 * The page of the matching properties of each selected config, none if the query
+	 * reports an error.
+	 */
+	public List<ProfileConfig> find(PropertyQuery query) {
+		List<ProfileConfig> result = new ArrayList<>();
+		sortedProperties().forEach((profiles, properties) -> {
+			if (!query.acceptsProfiles(profiles)) {
+				return;
+			}
+			List<KeyValue> page = new ArrayList<>();
+			int total = 0;
+			for (KeyValue property : properties) {
+				if (query.matches(property.getKey(), property.getValue())) {
+					if (total >= query.getStart() && page.size() < query.getLimit()) {
+						page.add(property);
+					}
+					total++;
+				}
+			}
+			result.add(ProfileConfig.builder().profiles(profiles).properties(page).total(total)
+					.start(query.getStart()).build());
+		});
+		return query.getError() == null ? result : Collections.emptyList();
+	}
+
+	/**
+	 * The JSON counterpart of the page, taking the same parameters.
+	 */
+	public void doQuery(StaplerRequest request, StaplerResponse response) throws IOException {
+		PropertyQuery query = PropertyQuery.from(request);
+		List<ProfileConfig> found = find(query);
+		if (query.getError() != null) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, query.getError());
+			return;
+		}
+		JSONArray configs = new JSONArray();
+		for (ProfileConfig config : found) {
+			JSONArray properties = new JSONArray();
+			for (KeyValue property : config.getProperties()) {
+				JSONObject json = new JSONObject();
+				json.put("key", property.getKey());
+				json.put("value", property.getValue() == null ? JSONNull.getInstance() : property.getValue());
+				properties.add(json);
+			}
+			JSONObject json = new JSONObject();
+			json.put("profiles", config.getProfiles());
+			json.put("total", config.getTotal());
+			json.put("start", config.getStart());
+			json.put("properties", properties);
+			configs.add(json);
+		}
+		JSONObject json = new JSONObject();
+		json.put("configs", configs);
+		response.setContentType("application/json;charset=UTF-8");
+		json.write(response.getWriter());
+	}
+
+	/**
+	 * Streams the recorded configs, or only the one of {@code profiles}, as a
+	 * {@code properties} (default), {@code yaml} or {@code json} file.
+	 */
+	public void doDownload(StaplerRequest request, StaplerResponse response, @QueryParameter String format,
+			@QueryParameter String profiles) throws IOException {
+		ConfigDownloadFormat downloadFormat;
+		try {
+			downloadFormat = ConfigDownloadFormat
+					.valueOf(StringUtils.defaultIfEmpty(format, "properties").toUpperCase(Locale.ROOT));
+		}
+		catch (IllegalArgumentException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unknown format " + format);
+			return;
+		}
+		Map<String, List<KeyValue>> configs = sortedProperties();
+		if (profiles != null) {
+			if (!configs.containsKey(profiles)) {
+				response.sendError(HttpServletResponse.SC_NOT_FOUND, "No config with profiles [" + profiles + "]");
+				return;
+			}
+			configs = Collections.singletonMap(profiles, configs.get(profiles));
+		}
+		String fileName = "spring-config" + (profiles == null || profiles.isEmpty() ? "" : "-" + profiles) + "."
+				+ downloadFormat.getExtension();
+		response.setContentType(downloadFormat.getContentType() + ";charset=UTF-8");
+		response.setHeader("Content-Disposition",
+				"attachment; filename=\"" + fileName.replaceAll("[^\\w.,-]", "_") + "\"");
+		try (Writer writer = new BufferedWriter(
+				new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8))) {
+			downloadFormat.write(writer, configs);
+		}
+	}
+
+	/**
+	 * The properties of each config sorted by key, computed once for the current summaries
+	 * and softly kept.
+	 */
+	private Map<String, List<KeyValue>> sortedProperties() {
+		Map<String, ConfigSummary> source = summaries;
+		SortedView view = sortedView == null ? null : sortedView.get();
+		if (view == null || view.source != source) {
+			Map<String, List<KeyValue>> sorted = new LinkedHashMap<>();
+			loadProperties().forEach((profiles, properties) -> sorted.put(profiles,
+					Collections.unmodifiableList(properties.entrySet().stream()
+							.map(property -> KeyValue.builder().key(property.getKey()).value(property.getValue())
+									.build())
+							.sorted(Comparator.comparing(KeyValue::getKey)).collect(Collectors.toList()))));
+			view = new SortedView(source, sorted);
+			sortedView = new SoftReference<>(view);
+		}
+		return view.properties;
+	}
+
+	private Map<String, Map<String, String>> loadProperties() {
+		Map<String, Map<String, String>> legacy = allProperties;
+		if (legacy != null) {
+			// Not migrated
+			return legacy;
+		}
+		RecordedConfigStore store = RecordedConfigStore.getInstance();
+		Map<String, Map<String, String>> loaded = new LinkedHashMap<>();
+		summaries.forEach((profiles, summary) -> {
+			try {
+				loaded.put(profiles, store.get(summary.getHash()));
+			}
+			catch (IOException e) {
+				log.log(Level.WARNING, "Failed to read the Spring config " + profiles + " of " + run, e);
+			}
+		});
+		return loaded;
+	}
+
+	/**
+	 * Does the pending save before the build completes.
+	 */
+	@Extension
+	public static class FlushingRunListener extends RunListener<Run<?, ?>> {
+
+		@Override
+		public void onCompleted(Run<?, ?> run, @Nonnull TaskListener listener) {
+			SpringConfigAction action = run.getAction(SpringConfigAction.class);
+			if (action != null) {
+				action.flush();
+			}
+		}
+
+	}
+
+	@Getter
+	public static class ConfigSummary {
+
+		private final int keyCount;
+
+		/**
+		 * SHA-256 of the properties, their key in the {@link RecordedConfigStore}.
+		 */
+		private final String hash;
+
+		ConfigSummary(int keyCount, String hash) {
+			this.keyCount = keyCount;
+			this.hash = hash;
+		}
+
 	}
 
 	@Setter
@@ -84,6 +420,26 @@ public class SpringConfigAction implements RunAction2 {
 
 		private List<KeyValue> properties;
 
+		/**
+		 * The number of matching properties, {@link #properties} being a page of them.
+		 */
+		private int total;
+
+		private int start;
+
+	}
+
+	private static final class SortedView {
+
+		private final Map<String, ConfigSummary> source;
+
+		private final Map<String, List<KeyValue>> properties;
+
+		SortedView(Map<String, ConfigSummary> source, Map<String, List<KeyValue>> properties) {
+			this.source = source;
+			this.properties = properties;
+		}
+
 	}
 
 	@Setter
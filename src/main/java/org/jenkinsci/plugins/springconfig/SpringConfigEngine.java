@@ -0,0 +1,65 @@
+package org.jenkinsci.plugins.springconfig;
+
+import org.springframework.boot.Banner;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.springframework.boot.context.config.ConfigFileApplicationListener.CONFIG_LOCATION_PROPERTY;
+
+/**
+ * The ways {@code springConfig} can turn config files into a {@link StandardEnvironment}.
+ */
+public enum SpringConfigEngine {
+
+	/**
+	 * Reads the files with Spring Boot's property source loaders, no application context
+	 * is started. See {@link SpringConfigLoader} for the supported features.
+	 */
+	LIGHTWEIGHT {
+		@Override
+		StandardEnvironment load(SpringConfigLoader loader, List<String> profiles, List<String> locations)
+				throws IOException {
+			return loader.load(profiles, locations);
+		}
+	},
+
+	/**
+	 * Boots and closes an empty {@code SpringApplication} for every call. Slower, kept as a
+	 * fallback for config files relying on features the lightweight engine doesn't cover.
+	 */
+	SPRING_APPLICATION {
+		@Override
+		StandardEnvironment load(SpringConfigLoader loader, List<String> profiles, List<String> locations) {
+			StandardEnvironment environment = new StandardEnvironment();
+			Map<String, Object> configFilesMap = new HashMap();
+			configFilesMap.put(CONFIG_LOCATION_PROPERTY, String.join(",", locations));
+			MapPropertySource mapPropertySource = new MapPropertySource("configfiles", configFilesMap);
+			environment.getPropertySources().addFirst(mapPropertySource);
+			SpringApplicationBuilder builder = new SpringApplicationBuilder()
+					.profiles(profiles.toArray(new String[0])).bannerMode(Banner.Mode.OFF).environment(environment)
+					// Don't use the default properties in this builder
+					.registerShutdownHook(false).logStartupInfo(false).web(WebApplicationType.NONE)
+					.sources(SpringConfigStep.EmtpyConfiguration.class);
+			builder.run().close();
+			return environment;
+		}
+	};
+
+	StandardEnvironment load(List<String> profiles, List<String> locations) throws IOException {
+		return load(new SpringConfigLoader(), profiles, locations);
+	}
+
+	/**
+	 * @param loader the loader to use, one instance parses each file once
+	 */
+	abstract StandardEnvironment load(SpringConfigLoader loader, List<String> profiles, List<String> locations)
+			throws IOException;
+
+}
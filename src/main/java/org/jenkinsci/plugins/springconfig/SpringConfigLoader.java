@@ -0,0 +1,308 @@
+package org.jenkinsci.plugins.springconfig;
+
+import org.springframework.boot.env.PropertiesPropertySourceLoader;
+import org.springframework.boot.env.PropertySourceLoader;
+import org.springframework.boot.env.RandomValuePropertySource;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.MutablePropertySources;
+import org.springframework.core.env.Profiles;
+import org.springframework.core.env.PropertyResolver;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.CheckForNull;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Loads Spring Boot style config files into a {@link StandardEnvironment} without starting
+ * a {@code SpringApplication}.
+ * <p>
+ * The rules of Spring Boot's config data processing are followed for the features this
+ * plugin relies on: directory and file locations, profile specific files, multi-document
+ * files activated by {@code spring.config.activate.on-profile} (or the legacy
+ * {@code spring.profiles}) and profiles activated by {@code spring.profiles.active},
+ * {@code spring.profiles.include} and {@code spring.profiles.group}. Anything beyond that,
+ * such as {@code spring.config.import}, needs {@link SpringConfigEngine#SPRING_APPLICATION}.
+ * <p>
+ * Parsed documents are kept by the loader instance, so one loader can resolve several
+ * profile sets against the same files.
+ * <p>
+ * The files are read from a {@link ConfigSource}, the file system unless another one is
+ * given.
+ */
+final class SpringConfigLoader {
+
+	/**
+	 * Reads the files from the local file system.
+	 */
+	static final ConfigSource FILE_SYSTEM = new ConfigSource() {
+
+		@Override
+		public boolean exists(String location) {
+			return new File(location).exists();
+		}
+
+		/**
+		 * Reads the whole file, so reading and parsing are timed apart.
+		 */
+		@Override
+		public Resource getResource(String path) throws IOException {
+			File file = new File(path);
+			return file.isFile() ? new ByteArrayResource(Files.readAllBytes(file.toPath()), describe(path)) : null;
+		}
+
+		@Override
+		public String describe(String path) {
+			return new File(path).getAbsolutePath();
+		}
+
+		@Override
+		public List<String> fingerprint(String location) throws IOException {
+			List<String> fingerprint = new ArrayList<>();
+			for (File file : ConfigFileNames.candidateFiles(location)) {
+				fingerprint.add(file.getName() + ':' + file.length() + ':' + file.lastModified() + ':'
+						+ ResolvedConfigCache.digest(file));
+			}
+			return fingerprint;
+		}
+
+	};
+
+	private static final String ACTIVE_PROFILES_PROPERTY = "spring.profiles.active";
+
+	private static final String INCLUDE_PROFILES_PROPERTY = "spring.profiles.include";
+
+	private static final String GROUP_PROFILES_PROPERTY = "spring.profiles.group.";
+
+	private static final String ON_PROFILE_PROPERTY = "spring.config.activate.on-profile";
+
+	private static final String LEGACY_PROFILES_PROPERTY = "spring.profiles";
+
+	private static final String ON_CLOUD_PLATFORM_PROPERTY = "spring.config.activate.on-cloud-platform";
+
+	/**
+	 * Same loaders and order as Spring Boot's {@code spring.factories}. The first
+	 * extension of the first loader has the highest precedence within a location, see
+	 * {@link ConfigFileNames#EXTENSIONS}.
+	 */
+	private static final List<PropertySourceLoader> LOADERS = Collections
+			.unmodifiableList(Arrays.asList(new PropertiesPropertySourceLoader(), new YamlPropertySourceLoader()));
+
+	private final ConfigSource source;
+
+	private final Map<String, List<PropertySource<?>>> documents = new HashMap<>();
+
+	private long readNanos;
+
+	SpringConfigLoader() {
+		this(FILE_SYSTEM);
+	}
+
+	SpringConfigLoader(ConfigSource source) {
+		this.source = source;
+	}
+
+	ConfigSource getSource() {
+		return source;
+	}
+
+	/**
+	 * The time spent reading files from the source, the rest of {@link #load} being spent
+	 * parsing them and activating the documents.
+	 */
+	long getReadNanos() {
+		return readNanos;
+	}
+
+	/**
+	 * Loads the config files found at the given locations.
+	 * @param profiles the profiles to activate in addition to the ones activated by the
+	 * files themselves
+	 * @param locations absolute directory (ending with a separator) or file locations,
+	 * later locations override earlier ones
+	 * @return an environment holding the active documents, highest precedence first
+	 * @throws IOException if a location does not exist or a file can't be parsed
+	 */
+	StandardEnvironment load(List<String> profiles, List<String> locations) throws IOException {
+		List<PropertySource<?>> loaded = new ArrayList<>();
+		for (String location : locations) {
+			if (!source.exists(location)) {
+				throw new FileNotFoundException("Config data location '" + location + "' does not exist");
+			}
+			loaded.addAll(documents(location, null));
+		}
+
+		StandardEnvironment environment = source.newEnvironment();
+		List<String> activeProfiles = activeProfiles(profiles, loaded);
+		if (!activeProfiles.isEmpty()) {
+			environment.setActiveProfiles(activeProfiles.toArray(new String[0]));
+		}
+		// Profile specific files always override the non-specific ones, the last profile
+		// wins
+		List<String> fileProfiles = activeProfiles.isEmpty() ? Arrays.asList(environment.getDefaultProfiles())
+				: activeProfiles;
+		for (String profile : fileProfiles) {
+			for (String location : locations) {
+				loaded.addAll(documents(location, profile));
+			}
+		}
+
+		RandomValuePropertySource.addToEnvironment(environment);
+		MutablePropertySources propertySources = environment.getPropertySources();
+		for (int i = loaded.size() - 1; i >= 0; i--) {
+			PropertySource<?> document = loaded.get(i);
+			if (isActive(document, environment)) {
+				propertySources.addLast(document);
+			}
+		}
+		return environment;
+	}
+
+	private List<PropertySource<?>> documents(String location, String profile) throws IOException {
+		List<PropertySource<?>> result = new ArrayList<>();
+		for (String path : ConfigFileNames.candidatePaths(location, profile)) {
+			List<PropertySource<?>> parsed = documents.get(path);
+			if (parsed == null) {
+				parsed = parse(path, location);
+				documents.put(path, parsed);
+			}
+			result.addAll(parsed);
+		}
+		return result;
+	}
+
+	private List<PropertySource<?>> parse(String path, String location) throws IOException {
+		long start = System.nanoTime();
+		Resource resource = source.getResource(path);
+		readNanos += System.nanoTime() - start;
+		if (resource == null) {
+			return Collections.emptyList();
+		}
+		String extension = ConfigFileNames.getExtension(path);
+		for (PropertySourceLoader loader : LOADERS) {
+			for (String loaderExtension : loader.getFileExtensions()) {
+				if (loaderExtension.equalsIgnoreCase(extension)) {
+					String name = "Config resource 'file [" + source.describe(path) + "]' via location '" + location
+							+ "'";
+					return loader.load(name, resource);
+				}
+			}
+		}
+		throw new IllegalStateException("File extension of config file location '" + location
+				+ "' is not known to any PropertySourceLoader");
+	}
+
+	private List<String> activeProfiles(List<String> profiles, List<PropertySource<?>> documents) {
+		// System properties and environment variables take precedence like in Spring Boot
+		StandardEnvironment resolver = source.newEnvironment();
+		for (int i = documents.size() - 1; i >= 0; i--) {
+			PropertySource<?> document = documents.get(i);
+			if (activationProfiles(document).isEmpty() && !document.containsProperty(ON_CLOUD_PLATFORM_PROPERTY)) {
+				resolver.getPropertySources().addLast(document);
+			}
+		}
+		Set<String> activated = new LinkedHashSet<>(profiles);
+		activated.addAll(listProperty(resolver, INCLUDE_PROFILES_PROPERTY));
+		activated.addAll(listProperty(resolver, ACTIVE_PROFILES_PROPERTY));
+		Set<String> expanded = new LinkedHashSet<>();
+		activated.forEach(profile -> expandGroup(resolver, profile, expanded));
+		return new ArrayList<>(expanded);
+	}
+
+	private static void expandGroup(PropertyResolver resolver, String profile, Set<String> expanded) {
+		if (expanded.add(profile)) {
+			for (String member : listProperty(resolver, GROUP_PROFILES_PROPERTY + profile)) {
+				expandGroup(resolver, member, expanded);
+			}
+		}
+	}
+
+	private static boolean isActive(PropertySource<?> document, Environment environment) {
+		if (document.containsProperty(ON_CLOUD_PLATFORM_PROPERTY)) {
+			return false;
+		}
+		List<String> expressions = activationProfiles(document);
+		return expressions.isEmpty() || environment.acceptsProfiles(Profiles.of(expressions.toArray(new String[0])));
+	}
+
+	private static List<String> activationProfiles(PropertySource<?> document) {
+		List<String> expressions = new ArrayList<>();
+		expressions.addAll(listProperty(document::getProperty, ON_PROFILE_PROPERTY));
+		expressions.addAll(listProperty(document::getProperty, LEGACY_PROFILES_PROPERTY));
+		return expressions;
+	}
+
+	private static List<String> listProperty(PropertyResolver resolver, String name) {
+		return listProperty(resolver::getProperty, name);
+	}
+
+	/**
+	 * Reads a comma separated value or, as bound by Spring Boot, an indexed list.
+	 */
+	private static List<String> listProperty(Function<String, Object> lookup, String name) {
+		List<String> values = new ArrayList<>();
+		Object value = lookup.apply(name);
+		if (value != null) {
+			values.addAll(Arrays.asList(StringUtils.commaDelimitedListToStringArray(String.valueOf(value))));
+		}
+		for (int i = 0; (value = lookup.apply(name + "[" + i + "]")) != null; i++) {
+			values.addAll(Arrays.asList(StringUtils.commaDelimitedListToStringArray(String.valueOf(value))));
+		}
+		return values.stream().map(String::trim).filter(profile -> !profile.isEmpty()).collect(Collectors.toList());
+	}
+
+	/**
+	 * Where the config files are read from.
+	 */
+	interface ConfigSource {
+
+		boolean exists(String location);
+
+		/**
+		 * @return the file at the path, {@code null} if there is none
+		 */
+		@CheckForNull
+		Resource getResource(String path) throws IOException;
+
+		/**
+		 * The absolute path of the file, as shown in the property source names.
+		 */
+		String describe(String path);
+
+		/**
+		 * Identifies the content of every file the location could contribute, for the
+		 * {@link ResolvedConfigCache}.
+		 */
+		List<String> fingerprint(String location) throws IOException;
+
+		/**
+		 * A new environment holding the system properties and environment variables the
+		 * placeholders and the profiles are resolved against, those of the current JVM by
+		 * default.
+		 */
+		default StandardEnvironment newEnvironment() {
+			return new StandardEnvironment();
+		}
+
+		/**
+		 * Identifies the system properties and environment variables of
+		 * {@link #newEnvironment()} for the {@link ResolvedConfigCache}, empty for those of
+		 * the current JVM.
+		 */
+		default String environmentFingerprint() {
+			return "";
+		}
+
+	}
+
+}
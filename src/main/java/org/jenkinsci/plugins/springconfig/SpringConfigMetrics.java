@@ -0,0 +1,192 @@
+package org.jenkinsci.plugins.springconfig;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.io.Serializable;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time spent in each phase of a {@code springConfig} call and the size of its result.
+ * <p>
+ * Filled partly in the JVM owning the workspace, then sent back and completed on the
+ * controller, where it is printed to the build log, kept by the {@link SpringConfigAction}
+ * and added to the {@link SpringConfigStatistics}. Phases may be added from several
+ * threads.
+ */
+@ExportedBean
+public final class SpringConfigMetrics implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	public enum Phase {
+
+		/**
+		 * Sending the Spring jars to the agent, see {@link AgentClassPreloader}.
+		 */
+		PRELOAD,
+
+		/**
+		 * Reading the config files.
+		 */
+		READ,
+
+		/**
+		 * Parsing the files and activating their documents.
+		 */
+		PARSE,
+
+		/**
+		 * Flattening the properties and resolving their placeholders.
+		 */
+		RESOLVE,
+
+		/**
+		 * Serializing the result and reading it back on the controller.
+		 */
+		SERIALIZE,
+
+		/**
+		 * The round trip on the channel, less the time spent in the JVM of the workspace.
+		 */
+		TRANSFER,
+
+		/**
+		 * Recording the result in the build.
+		 */
+		RECORD;
+
+		String displayName() {
+			return name().toLowerCase(Locale.ROOT);
+		}
+
+	}
+
+	private final String profiles;
+
+	private final EnumMap<Phase, Long> nanos = new EnumMap<>(Phase.class);
+
+	private long totalNanos;
+
+	private int keyCount;
+
+	private long payloadBytes;
+
+	private int cacheHits;
+
+	SpringConfigMetrics(String profiles) {
+		this.profiles = profiles;
+	}
+
+	synchronized void add(Phase phase, long phaseNanos) {
+		nanos.merge(phase, phaseNanos, Long::sum);
+	}
+
+	/**
+	 * Adds the phases and cache hits measured in another JVM.
+	 */
+	synchronized void addAll(SpringConfigMetrics other) {
+		other.nanos.forEach(this::add);
+		cacheHits += other.cacheHits;
+	}
+
+	synchronized void cacheHit() {
+		cacheHits++;
+	}
+
+	void setTotalNanos(long totalNanos) {
+		this.totalNanos = totalNanos;
+	}
+
+	void setKeyCount(int keyCount) {
+		this.keyCount = keyCount;
+	}
+
+	void setPayloadBytes(long payloadBytes) {
+		this.payloadBytes = payloadBytes;
+	}
+
+	/**
+	 * The profiles of the call, the profile sets separated by {@code ;} for a batch call.
+	 */
+	@Exported
+	public String getProfiles() {
+		return profiles;
+	}
+
+	synchronized long getNanos(Phase phase) {
+		return nanos.getOrDefault(phase, 0L);
+	}
+
+	long getTotalNanos() {
+		return totalNanos;
+	}
+
+	/**
+	 * The time spent in each phase, in microseconds.
+	 */
+	@Exported
+	public Map<String, Long> getPhaseMicros() {
+		Map<String, Long> micros = new LinkedHashMap<>();
+		for (Phase phase : Phase.values()) {
+			micros.put(phase.displayName(), TimeUnit.NANOSECONDS.toMicros(getNanos(phase)));
+		}
+		return micros;
+	}
+
+	@Exported
+	public long getTotalMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(totalNanos);
+	}
+
+	/**
+	 * The number of properties returned, for all profile sets.
+	 */
+	@Exported
+	public int getKeyCount() {
+		return keyCount;
+	}
+
+	/**
+	 * The bytes sent from the JVM of the workspace: the result, or the config files in the
+	 * controller mode.
+	 */
+	@Exported
+	public long getPayloadBytes() {
+		return payloadBytes;
+	}
+
+	/**
+	 * The profile sets found in the {@link ResolvedConfigCache}.
+	 */
+	@Exported
+	public int getCacheHits() {
+		return cacheHits;
+	}
+
+	/**
+	 * One line for the build log, times in milliseconds.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder line = new StringBuilder("springConfig [").append(profiles).append("]: ")
+				.append(keyCount).append(" keys, ").append(payloadBytes).append(" bytes, ")
+				.append(millis(totalNanos)).append(" ms (");
+		for (Phase phase : Phase.values()) {
+			if (phase.ordinal() > 0) {
+				line.append(", ");
+			}
+			line.append(phase.displayName()).append(' ').append(millis(getNanos(phase)));
+		}
+		return line.append(')').toString();
+	}
+
+	private static String millis(long nanos) {
+		return String.format(Locale.ROOT, "%.1f", nanos / 1_000_000.0);
+	}
+
+}
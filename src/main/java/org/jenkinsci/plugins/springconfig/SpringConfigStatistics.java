@@ -0,0 +1,170 @@
+package org.jenkinsci.plugins.springconfig;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.ManagementLink;
+import jenkins.util.SystemProperties;
+import lombok.Getter;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The percentiles of the {@link SpringConfigMetrics} of the latest {@code springConfig}
+ * calls of the controller, shown in Manage Jenkins.
+ * <p>
+ * The number of calls kept is set with the
+ * {@code org.jenkinsci.plugins.springconfig.SpringConfigStatistics.samples} system
+ * property, 10000 by default. They are kept in memory only.
+ */
+@Extension
+public class SpringConfigStatistics extends ManagementLink {
+
+	static final int SAMPLES = Math.max(1,
+			SystemProperties.getInteger(SpringConfigStatistics.class.getName() + ".samples", 10000));
+
+	private static final SpringConfigMetrics.Phase[] PHASES = SpringConfigMetrics.Phase.values();
+
+	private static final int TOTAL = PHASES.length;
+
+	private static final int KEYS = TOTAL + 1;
+
+	private static final int BYTES = TOTAL + 2;
+
+	/**
+	 * A ring buffer of the samples of each phase, then of the total, key count and payload
+	 * bytes.
+	 */
+	private final long[][] samples = new long[BYTES + 1][SAMPLES];
+
+	private long calls;
+
+	static SpringConfigStatistics get() {
+		return ExtensionList.lookupSingleton(SpringConfigStatistics.class);
+	}
+
+	synchronized void record(SpringConfigMetrics metrics) {
+		int slot = (int) (calls % SAMPLES);
+		for (SpringConfigMetrics.Phase phase : PHASES) {
+			samples[phase.ordinal()][slot] = metrics.getNanos(phase);
+		}
+		samples[TOTAL][slot] = metrics.getTotalNanos();
+		samples[KEYS][slot] = metrics.getKeyCount();
+		samples[BYTES][slot] = metrics.getPayloadBytes();
+		calls++;
+	}
+
+	/**
+	 * The number of calls since the controller started.
+	 */
+	public synchronized long getCalls() {
+		return calls;
+	}
+
+	public synchronized int getSampleCount() {
+		return (int) Math.min(calls, SAMPLES);
+	}
+
+	/**
+	 * The percentiles of each phase and of the total, in milliseconds.
+	 */
+	public List<Percentiles> getTimes() {
+		long[][] copy = copySamples();
+		List<Percentiles> times = new ArrayList<>();
+		for (SpringConfigMetrics.Phase phase : PHASES) {
+			times.add(new Percentiles(phase.displayName(), copy[phase.ordinal()], 1_000_000.0));
+		}
+		times.add(new Percentiles("total", copy[TOTAL], 1_000_000.0));
+		return times;
+	}
+
+	public List<Percentiles> getSizes() {
+		long[][] copy = copySamples();
+		return Arrays.asList(new Percentiles("keys", copy[KEYS], 1), new Percentiles("payload bytes", copy[BYTES], 1));
+	}
+
+	private synchronized long[][] copySamples() {
+		int count = getSampleCount();
+		long[][] copy = new long[samples.length][];
+		for (int i = 0; i < samples.length; i++) {
+			copy[i] = Arrays.copyOf(samples[i], count);
+		}
+		return copy;
+	}
+
+	@CheckForNull
+	@Override
+	public String getIconFileName() {
+		return "/plugin/spring-config/images/spring-framework.png";
+	}
+
+	@CheckForNull
+	@Override
+	public String getDisplayName() {
+		return "Spring Config Statistics";
+	}
+
+	@Override
+	public String getDescription() {
+		return "Time spent in each phase of the latest springConfig calls";
+	}
+
+	@CheckForNull
+	@Override
+	public String getUrlName() {
+		return "springConfigStatistics";
+	}
+
+	@Nonnull
+	@Override
+	public Category getCategory() {
+		return Category.STATUS;
+	}
+
+	@Getter
+	public static class Percentiles {
+
+		private final String name;
+
+		private final String p50;
+
+		private final String p90;
+
+		private final String p99;
+
+		private final String max;
+
+		/**
+		 * @param values the samples, sorted in place
+		 * @param unit the value of one displayed unit
+		 */
+		Percentiles(String name, long[] values, double unit) {
+			this.name = name;
+			Arrays.sort(values);
+			this.p50 = format(percentile(values, 0.5), unit);
+			this.p90 = format(percentile(values, 0.9), unit);
+			this.p99 = format(percentile(values, 0.99), unit);
+			this.max = format(values.length == 0 ? 0 : values[values.length - 1], unit);
+		}
+
+		/**
+		 * The nearest-rank percentile of the sorted values.
+		 */
+		static long percentile(long[] sorted, double percentile) {
+			if (sorted.length == 0) {
+				return 0;
+			}
+			return sorted[Math.max(0, (int) Math.ceil(percentile * sorted.length) - 1)];
+		}
+
+		private static String format(long value, double unit) {
+			return unit == 1 ? Long.toString(value) : String.format(Locale.ROOT, "%.1f", value / unit);
+		}
+
+	}
+
+}
@@ -6,45 +6,80 @@ import hudson.CloseProofOutputStream;
 import hudson.Extension;
 import hudson.FilePath;
 import hudson.Launcher;
+import hudson.model.Result;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.remoting.RemoteOutputStream;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
 import jenkins.security.MasterToSlaveCallable;
+import jenkins.util.ContextResettingExecutorService;
+import jenkins.util.SystemProperties;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.SneakyThrows;
 import org.jenkinsci.plugins.workflow.steps.*;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
-import org.springframework.boot.Banner;
-import org.springframework.boot.WebApplicationType;
-import org.springframework.boot.builder.SpringApplicationBuilder;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.core.env.MapPropertySource;
 import org.springframework.core.env.StandardEnvironment;
 
 import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.PrintStream;
 import java.io.Serializable;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.stream.Collectors;
 
-import static org.springframework.boot.context.config.ConfigFileApplicationListener.CONFIG_LOCATION_PROPERTY;
-
 @Setter
 @Getter
 public class SpringConfigStep extends Step implements Serializable {
 
 	private static final long serialVersionUID = 1L;
 
+	/**
+	 * Resolves the config in the JVM owning the workspace, the default.
+	 */
+	public static final String MODE_AGENT = "agent";
+
+	/**
+	 * Only reads the config files in the JVM owning the workspace and resolves the config
+	 * on the controller.
+	 */
+	public static final String MODE_CONTROLLER = "controller";
+
 	private List<String> profiles = new ArrayList<String>();
 
+	private List<List<String>> profileSets;
+
 	private String location;
 
 	private boolean hideInBuildPage = false;
 
+	private List<String> include = new ArrayList<String>();
+
+	private List<String> exclude = new ArrayList<String>();
+
+	private SpringConfigEngine engine = SpringConfigEngine.LIGHTWEIGHT;
+
+	private int timeout;
+
+	private String mode = MODE_AGENT;
+
+	private List<String> directories;
+
+	private String baseDirectory;
+
+	private int parallelism;
+
+	private boolean failFast;
+
 	@DataBoundSetter
 	public void setProfiles(List<String> profiles) {
 		this.profiles = ImmutableList.copyOf(profiles);
@@ -54,6 +89,17 @@ public class SpringConfigStep extends Step implements Serializable {
 		return ImmutableList.copyOf(profiles);
 	}
 
+	/**
+	 * Resolves several profile sets at once, the step then returns a map of the active
+	 * profiles of each set to its config.
+	 */
+	@DataBoundSetter
+	public void setProfileSets(List<List<String>> profileSets) {
+		this.profileSets = profileSets == null ? null
+				: profileSets.stream().<List<String>>map(ImmutableList::copyOf)
+						.collect(ImmutableList.toImmutableList());
+	}
+
 	@DataBoundSetter
 	public void setLocation(String location) {
 		this.location = location;
@@ -64,6 +110,109 @@ public class SpringConfigStep extends Step implements Serializable {
 		this.hideInBuildPage = hideInBuildPage;
 	}
 
+	/**
+	 * @param include prefixes or globs of the keys to return, all keys if empty
+	 * @see PropertyKeyFilter
+	 */
+	@DataBoundSetter
+	public void setInclude(List<String> include) {
+		this.include = ImmutableList.copyOf(include);
+	}
+
+	public List<String> getInclude() {
+		return ImmutableList.copyOf(include);
+	}
+
+	/**
+	 * @param exclude prefixes or globs of the keys not to return
+	 * @see PropertyKeyFilter
+	 */
+	@DataBoundSetter
+	public void setExclude(List<String> exclude) {
+		this.exclude = ImmutableList.copyOf(exclude);
+	}
+
+	public List<String> getExclude() {
+		return ImmutableList.copyOf(exclude);
+	}
+
+	PropertyKeyFilter getKeyFilter() {
+		return new PropertyKeyFilter(include, exclude);
+	}
+
+	@DataBoundSetter
+	public void setEngine(SpringConfigEngine engine) {
+		this.engine = engine;
+	}
+
+	/**
+	 * @param timeout seconds to wait for the config files to be read, {@code 0} waits
+	 * forever
+	 */
+	@DataBoundSetter
+	public void setTimeout(int timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * @param mode {@link #MODE_AGENT} or {@link #MODE_CONTROLLER}
+	 */
+	@DataBoundSetter
+	public void setMode(String mode) {
+		String normalized = mode == null || mode.isEmpty() ? MODE_AGENT : mode.toLowerCase(Locale.ROOT);
+		if (!normalized.equals(MODE_AGENT) && !normalized.equals(MODE_CONTROLLER)) {
+			throw new IllegalArgumentException("Unknown mode " + mode + ", expected agent or controller");
+		}
+		this.mode = normalized;
+	}
+
+	public String getMode() {
+		return mode == null ? MODE_AGENT : mode;
+	}
+
+	/**
+	 * Resolves the config of each directory, relative to the current directory, the step
+	 * then returns a map of the directories to their config.
+	 */
+	@DataBoundSetter
+	public void setDirectories(List<String> directories) {
+		this.directories = directories == null ? null : ImmutableList.copyOf(directories);
+	}
+
+	/**
+	 * Resolves the config of each subdirectory holding config files, the step then returns
+	 * a map of the subdirectory names to their config.
+	 */
+	@DataBoundSetter
+	public void setBaseDirectory(String baseDirectory) {
+		this.baseDirectory = baseDirectory;
+	}
+
+	/**
+	 * @param parallelism the directories resolved at once, {@code 0} for the number of
+	 * processors of the agent
+	 */
+	@DataBoundSetter
+	public void setParallelism(int parallelism) {
+		if (parallelism < 0) {
+			throw new IllegalArgumentException("parallelism can't be negative");
+		}
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * @param failFast whether the step fails at the first directory failing, by default the
+	 * configs of the other directories are returned and the build is unstable
+	 */
+	@DataBoundSetter
+	public void setFailFast(boolean failFast) {
+		this.failFast = failFast;
+	}
+
+	boolean isFanOut() {
+		return directories != null || baseDirectory != null;
+	}
+
 	@DataBoundConstructor
 	public SpringConfigStep() {
 	}
@@ -93,65 +242,386 @@ public class SpringConfigStep extends Step implements Serializable {
 
 	}
 
-	public static class SpringProfileExecution extends SynchronousStepExecution<EnvironmentWrapper> {
+	/**
+	 * Runs the remote {@link Execution} on a bounded executor, so the CPS VM thread is
+	 * never blocked while the files are read, and completes the step context from there.
+	 */
+	public static class SpringProfileExecution extends StepExecution {
+
+		private static final long serialVersionUID = 1L;
+
+		private static final ExecutorService EXECUTOR = createExecutor(
+				SystemProperties.getInteger(SpringConfigStep.class.getName() + ".executorThreads", 10));
+
+		/**
+		 * The calls in progress by run, channel, workspace and step parameters, identical
+		 * concurrent calls, such as parallel branches on the same agent, share their result.
+		 */
+		static final ConcurrentMap<List<Object>, CompletableFuture<Object>> IN_FLIGHT =
+				new ConcurrentHashMap<>();
+
+		/**
+		 * Completes a call in progress that failed, the calls that joined it call again.
+		 */
+		static final Object FAILED = new Object();
 
 		private final SpringConfigStep step;
 
+		private transient volatile Future<?> task;
+
+		private transient volatile Future<?> remoteCall;
+
+		/**
+		 * Whether the step context was completed, by the task or by {@link #stop}.
+		 */
+		private transient boolean completed;
+
 		protected SpringProfileExecution(@Nonnull StepContext context, SpringConfigStep step) {
 			super(context);
 			this.step = step;
 		}
 
+		private static ExecutorService createExecutor(int threads) {
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<>(),
+					new NamingThreadFactory(new DaemonThreadFactory(), "SpringConfigStep.SpringProfileExecution"));
+			executor.allowCoreThreadTimeOut(true);
+			return new ContextResettingExecutorService(executor);
+		}
+
+		@Override
+		public boolean start() throws Exception {
+			task = EXECUTOR.submit(() -> {
+				try {
+					Object result = run();
+					if (complete()) {
+						getContext().onSuccess(result);
+					}
+				}
+				catch (ExecutionException e) {
+					fail(e.getCause() != null ? e.getCause() : e);
+				}
+				catch (Throwable e) {
+					fail(e);
+				}
+			});
+			return false;
+		}
+
+		/**
+		 * @return whether the step context can be completed, only once
+		 */
+		private synchronized boolean complete() {
+			if (completed) {
+				return false;
+			}
+			completed = true;
+			return true;
+		}
+
+		private void fail(Throwable cause) {
+			if (complete()) {
+				getContext().onFailure(cause);
+			}
+		}
+
+		@Override
+		public void stop(@Nonnull Throwable cause) throws Exception {
+			// Completed first, the cancelled task then fails silently
+			fail(cause);
+			Future<?> call = remoteCall;
+			if (call != null) {
+				call.cancel(true);
+			}
+			Future<?> running = task;
+			if (running != null) {
+				running.cancel(true);
+			}
+		}
+
 		@Override
-		@SneakyThrows
-		protected EnvironmentWrapper run() {
+		public void onResume() {
+			fail(new IOException("springConfig can't be resumed after a restart"));
+		}
+
+		@Override
+		public String getStatus() {
+			return remoteCall == null ? "waiting to be executed" : "reading the spring config files";
+		}
+
+		private Object run() throws IOException, InterruptedException, ExecutionException, TimeoutException {
 			FilePath ws = getContext().get(FilePath.class);
 			assert ws != null;
 			TaskListener listener = getContext().get(TaskListener.class);
 			Run run = getContext().get(Run.class);
 			Launcher launcher = getContext().get(Launcher.class);
+			VirtualChannel channel = Optional.ofNullable(launcher).map(Launcher::getChannel).orElseGet(ws::getChannel);
+
+			long start = System.nanoTime();
+			SpringConfigMetrics metrics = new SpringConfigMetrics(step.getProfileSets() == null
+					? String.join(",", step.getProfiles())
+					: step.getProfileSets().stream().map(profiles -> String.join(",", profiles))
+							.collect(Collectors.joining(";")));
+			if (step.getProfileSets() != null && !step.getProfiles().isEmpty()) {
+				throw new IllegalArgumentException("profiles and profileSets can't be used together");
+			}
+			if (step.getProfileSets() != null) {
+				Set<String> names = new HashSet<>();
+				for (List<String> profiles : step.getProfileSets()) {
+					if (!names.add(String.join(",", profiles))) {
+						throw new IllegalArgumentException("profileSets contains [" + String.join(",", profiles)
+								+ "] more than once");
+					}
+				}
+			}
+			if (step.isFanOut()) {
+				if (step.getDirectories() != null && step.getBaseDirectory() != null) {
+					throw new IllegalArgumentException("directories and baseDirectory can't be used together");
+				}
+				if (step.getProfileSets() != null || step.getLocation() != null) {
+					throw new IllegalArgumentException(
+							"profileSets and location can't be used with directories or baseDirectory");
+				}
+				if (isControllerMode()) {
+					throw new IllegalArgumentException("directories and baseDirectory require the agent mode");
+				}
+			}
 
-			EnvironmentWrapper environmentWrapper = Optional.ofNullable(launcher).map(Launcher::getChannel)
-					.map(channel -> {
-						try {
-							return channel.call(
-									new Execution(step.getProfiles(), step.getLocation(), listener.getLogger(), ws));
-						}
-						catch (IOException | RuntimeException | InterruptedException e) {
-							return null;
-						}
-					}).orElse(null);
-			if (!step.isHideInBuildPage() && environmentWrapper != null) {
-				SpringConfigAction springConfigAction = run.getAction(SpringConfigAction.class);
-				if (springConfigAction == null) {
-					springConfigAction = new SpringConfigAction();
-					run.addAction(springConfigAction);
+			List<Object> key = inFlightKey(run.getExternalizableId(), channel, ws.getRemote(), step);
+			Object result = null;
+			boolean joined = false;
+			while (result == null) {
+				CompletableFuture<Object> call = new CompletableFuture<>();
+				CompletableFuture<Object> inFlight = IN_FLIGHT.putIfAbsent(key, call);
+				if (inFlight == null) {
+					try {
+						result = resolve(run, channel, ws, listener.getLogger(), metrics);
+						call.complete(result);
+						result = copy(result);
+					}
+					finally {
+						// Failures aren't shared, they may come from the timeout or the abort of this call
+						call.complete(FAILED);
+						IN_FLIGHT.remove(key, call);
+					}
+				}
+				else {
+					listener.getLogger().println("Joining an identical springConfig call in progress");
+					// A dependent future, cancelling it on timeout leaves the call running
+					Object shared = await(inFlight.thenApply(SpringProfileExecution::copy));
+					if (shared == FAILED) {
+						listener.getLogger().println("The joined springConfig call failed, calling again");
+					}
+					else {
+						result = shared;
+						joined = true;
+					}
 				}
-				springConfigAction.addProperties(environmentWrapper.getProfilesAsString(),
-						environmentWrapper.asProperties());
-				run.save();
 			}
-			return environmentWrapper;
+
+			Map<String, EnvironmentWrapper> environmentWrappers;
+			if (result instanceof EnvironmentWrapper) {
+				EnvironmentWrapper environmentWrapper = (EnvironmentWrapper) result;
+				environmentWrappers = Collections.singletonMap(environmentWrapper.getProfilesAsString(),
+						environmentWrapper);
+			}
+			else if (step.isFanOut()) {
+				@SuppressWarnings("unchecked")
+				Map<String, EnvironmentWrapper> byDirectory = (Map<String, EnvironmentWrapper>) result;
+				Map<String, EnvironmentWrapper> named = new LinkedHashMap<>();
+				byDirectory.forEach((directory, environmentWrapper) -> named
+						.put(directory + ":" + environmentWrapper.getProfilesAsString(), environmentWrapper));
+				environmentWrappers = named;
+			}
+			else {
+				@SuppressWarnings("unchecked")
+				Map<String, EnvironmentWrapper> batch = (Map<String, EnvironmentWrapper>) result;
+				environmentWrappers = batch;
+			}
+			metrics.setKeyCount(
+					environmentWrappers.values().stream().mapToInt(wrapper -> wrapper.asProperties().size()).sum());
+			SpringConfigAction action = null;
+			if (!step.isHideInBuildPage()) {
+				long recordStart = System.nanoTime();
+				Map<String, Map<String, String>> properties = new LinkedHashMap<>();
+				environmentWrappers.forEach((name, environmentWrapper) -> properties.put(name,
+						environmentWrapper.asProperties()));
+				// Saves the build shortly after
+				action = SpringConfigAction.getOrCreate(run);
+				action.addProperties(properties);
+				metrics.add(SpringConfigMetrics.Phase.RECORD, System.nanoTime() - recordStart);
+			}
+			if (!joined) {
+				// The phases of a joined call were measured by the call it joined
+				metrics.setTotalNanos(System.nanoTime() - start);
+				listener.getLogger().println(metrics);
+				if (action != null) {
+					action.addMetrics(metrics);
+				}
+				SpringConfigStatistics.get().record(metrics);
+			}
+			return result;
 		}
 
-		public static class Execution extends MasterToSlaveCallable<EnvironmentWrapper, RuntimeException> {
+		/**
+		 * Identifies the call in {@link #IN_FLIGHT}, the display options and the timeout
+		 * don't change what is read.
+		 */
+		static List<Object> inFlightKey(String runId, VirtualChannel channel, String workspace,
+				SpringConfigStep step) {
+			return Arrays.asList(runId, channel, workspace, step.getProfiles(), step.getProfileSets(),
+					step.getLocation(), step.getEngine(), step.getInclude(), step.getExclude(), step.getMode(),
+					step.getDirectories(), step.getBaseDirectory(), step.getParallelism(), step.isFailFast());
+		}
 
-			private static final long serialVersionUID = 1L;
+		/**
+		 * A shared result as returned to one caller. The pipeline can modify the maps and the
+		 * {@link EnvironmentWrapper}s, which may also be held by the
+		 * {@link ResolvedConfigCache} in the controller mode.
+		 */
+		private static Object copy(Object result) {
+			if (result instanceof EnvironmentWrapper) {
+				return ((EnvironmentWrapper) result).copy();
+			}
+			if (result instanceof Map) {
+				Map<Object, Object> copy = new LinkedHashMap<>();
+				((Map<?, ?>) result).forEach((key, value) -> copy.put(key, copy(value)));
+				return copy;
+			}
+			return result;
+		}
 
-			private final List<String> profiles;
+		/**
+		 * Preloads the classes if needed and resolves the config of the step, an
+		 * {@link EnvironmentWrapper} or, for profile sets and directories, a map of them. The
+		 * build is unstable if some directories failed.
+		 */
+		private Object resolve(Run<?, ?> run, VirtualChannel channel, FilePath ws, PrintStream logger,
+				SpringConfigMetrics metrics)
+				throws IOException, InterruptedException, ExecutionException, TimeoutException {
+			if (!isControllerMode()) {
+				long start = System.nanoTime();
+				AgentClassPreloader.preload(channel, logger);
+				metrics.add(SpringConfigMetrics.Phase.PRELOAD, System.nanoTime() - start);
+			}
+			if (step.isFanOut()) {
+				FanOutResult fanOut = call(channel, ws, logger, metrics,
+						new FanOutExecution(step.getProfiles(), step.getDirectories(), step.getBaseDirectory(),
+								step.getParallelism(), step.isFailFast(), step.getEngine(), step.getKeyFilter(),
+								logger, ws));
+				fanOut.getFailures().forEach((directory, failure) -> logger
+						.println("springConfig failed for " + directory + ": " + failure));
+				if (!fanOut.getFailures().isEmpty()) {
+					if (step.isFailFast()) {
+						throw new IOException(
+								"springConfig failed for " + String.join(", ", fanOut.getFailures().keySet()));
+					}
+					logger.printf("springConfig failed for %d of %d directories, their configs are left out: %s%n",
+							fanOut.getFailures().size(), fanOut.getFailures().size() + fanOut.getConfigs().size(),
+							String.join(", ", fanOut.getFailures().keySet()));
+					run.setResult(Result.UNSTABLE);
+				}
+				return fanOut.getConfigs();
+			}
+			if (step.getProfileSets() == null) {
+				return call(channel, ws, logger, metrics, new Execution(step.getProfiles(), step.getLocation(),
+						step.getEngine(), step.getKeyFilter(), logger, ws));
+			}
+			return call(channel, ws, logger, metrics, new BatchExecution(step.getProfileSets(), step.getLocation(),
+					step.getEngine(), step.getKeyFilter(), logger, ws));
+		}
+
+		private boolean isControllerMode() {
+			if (!MODE_CONTROLLER.equals(step.getMode())) {
+				return false;
+			}
+			if (step.getEngine() != SpringConfigEngine.LIGHTWEIGHT) {
+				throw new IllegalArgumentException("The controller mode requires the LIGHTWEIGHT engine");
+			}
+			return true;
+		}
+
+		/**
+		 * Runs the execution on the agent or, in the controller mode, reads the candidate
+		 * files from the workspace in one round trip and runs it locally.
+		 */
+		private <V extends Serializable> V call(VirtualChannel channel, FilePath ws, PrintStream logger,
+				SpringConfigMetrics metrics, AbstractExecution<V> execution)
+				throws IOException, InterruptedException, ExecutionException, TimeoutException {
+			long start = System.nanoTime();
+			if (!isControllerMode()) {
+				ChannelPayload<V> payload = await(channel.callAsync(execution));
+				long received = System.nanoTime();
+				metrics.addAll(payload.getMetrics());
+				metrics.add(SpringConfigMetrics.Phase.TRANSFER, received - start - payload.getCallNanos());
+				metrics.setPayloadBytes(payload.getSize());
+				V value = payload.get();
+				metrics.add(SpringConfigMetrics.Phase.SERIALIZE, System.nanoTime() - received);
+				return value;
+			}
+			ConfigFilesSnapshot snapshot = await(
+					ws.actAsync(new ConfigFilesSnapshot.Reader(execution.resolveLocations())));
+			metrics.add(SpringConfigMetrics.Phase.READ, System.nanoTime() - start);
+			metrics.setPayloadBytes(snapshot.getByteCount());
+			logger.printf("Read %d config files (%d bytes) from the workspace%n", snapshot.getFileCount(),
+					snapshot.getByteCount());
+			V value = execution.withSource(new SnapshotConfigSource(snapshot)).resolveAll();
+			metrics.addAll(execution.getMetrics());
+			return value;
+		}
+
+		private <V> V await(Future<V> call)
+				throws IOException, InterruptedException, ExecutionException, TimeoutException {
+			remoteCall = call;
+			try {
+				return step.getTimeout() > 0 ? call.get(step.getTimeout(), TimeUnit.SECONDS) : call.get();
+			}
+			catch (TimeoutException e) {
+				call.cancel(true);
+				throw new TimeoutException("springConfig timed out after " + step.getTimeout() + " seconds");
+			}
+			catch (InterruptedException e) {
+				call.cancel(true);
+				throw e;
+			}
+		}
+
+		/**
+		 * Common part of the callables reading the config files in the JVM owning the
+		 * workspace. The result is sent back as a {@link ChannelPayload}.
+		 */
+		public abstract static class AbstractExecution<V extends Serializable>
+				extends MasterToSlaveCallable<ChannelPayload<V>, RuntimeException> {
+
+			private static final long serialVersionUID = 1L;
 
 			private final String location;
 
+			private final SpringConfigEngine engine;
+
+			private final PropertyKeyFilter filter;
+
 			private final RemoteOutputStream remoteLogger;
 
 			private final FilePath ws;
 
+			private final int compressionThreshold = ChannelPayload.COMPRESSION_THRESHOLD;
+
 			private transient PrintStream localLogger;
 
+			/**
+			 * Where the config files are read from, the local file system if {@code null}.
+			 */
+			private transient SpringConfigLoader.ConfigSource source;
+
+			private transient SpringConfigMetrics metrics;
+
 			@SneakyThrows
-			public Execution(List<String> profiles, String location, PrintStream logger, FilePath ws) {
-				this.profiles = ImmutableList.copyOf(profiles);
+			protected AbstractExecution(String location, SpringConfigEngine engine, PropertyKeyFilter filter,
+					PrintStream logger, FilePath ws) {
 				this.location = location;
+				this.engine = engine;
+				this.filter = filter;
 				localLogger = logger;
 				this.remoteLogger = new RemoteOutputStream(new CloseProofOutputStream(logger));
 				this.ws = ws;
@@ -159,40 +629,102 @@ public class SpringConfigStep extends Step implements Serializable {
 
 			@Override
 			@SneakyThrows
-			public EnvironmentWrapper call() {
-
-				StandardEnvironment environment = new StandardEnvironment();
-				Map<String, Object> configFilesMap = new HashMap();
-				if (location != null && !location.equals("")) {
-					String newLocation = Arrays.stream(location.split(",")).map(single -> {
-						String remoteLocation = new FilePath(ws, single).getRemote();
-						char lastChar = single.charAt(single.length() - 1);
-						if (lastChar == '/' || lastChar == '\\') {
-							remoteLocation += lastChar;
-						}
-						return remoteLocation;
-					}).collect(Collectors.joining(","));
-					configFilesMap.put(CONFIG_LOCATION_PROPERTY, newLocation);
-				}
-				else {
-					configFilesMap.put(CONFIG_LOCATION_PROPERTY, ws.getRemote() + "/");
+			public ChannelPayload<V> call() {
+				long start = System.nanoTime();
+				return ChannelPayload.of(resolveAll(), compressionThreshold, getLogger(), getMetrics(), start);
+			}
+
+			/**
+			 * Resolves the config in the current JVM.
+			 */
+			protected abstract V resolveAll() throws IOException;
+
+			/**
+			 * Resolves one profile set, from the {@link ResolvedConfigCache} if possible.
+			 * @param loader the loader used by {@link SpringConfigEngine#LIGHTWEIGHT}, share
+			 * it to parse each file once for several profile sets
+			 */
+			protected EnvironmentWrapper resolve(SpringConfigLoader loader, List<String> profiles,
+					List<String> locations) throws IOException {
+				ResolvedConfigCache cache = ResolvedConfigCache.getInstance();
+				String cacheKey = null;
+				if (cache.isEnabled()) {
+					long start = System.nanoTime();
+					cacheKey = ResolvedConfigCache.key(engine + "\n" + profiles + "\n" + filter, locations,
+							loader.getSource());
+					// Digesting the files
+					getMetrics().add(SpringConfigMetrics.Phase.READ, System.nanoTime() - start);
+					EnvironmentWrapper cached = cache.get(cacheKey);
+					if (cached != null) {
+						getMetrics().cacheHit();
+						getLogger().println("Spring config cache hit (" + cache.getStatistics() + ")");
+						return cached;
+					}
 				}
-				MapPropertySource mapPropertySource = new MapPropertySource("configfiles", configFilesMap);
-				environment.getPropertySources().addFirst(mapPropertySource);
-				SpringApplicationBuilder builder = new SpringApplicationBuilder()
-						.profiles(profiles.toArray(new String[0])).bannerMode(Banner.Mode.OFF).environment(environment)
-						// Don't use the default properties in this builder
-						.registerShutdownHook(false).logStartupInfo(false).web(WebApplicationType.NONE)
-						.sources(EmtpyConfiguration.class);
-				builder.run().close();
+
+				long start = System.nanoTime();
+				long readNanos = loader.getReadNanos();
+				StandardEnvironment environment = engine.load(loader, profiles, locations);
+				readNanos = loader.getReadNanos() - readNanos;
+				getMetrics().add(SpringConfigMetrics.Phase.READ, readNanos);
+				getMetrics().add(SpringConfigMetrics.Phase.PARSE, System.nanoTime() - start - readNanos);
 
 				getLogger().print(environment);
 
-				return new EnvironmentWrapper(environment);
+				start = System.nanoTime();
+				EnvironmentWrapper environmentWrapper = new EnvironmentWrapper(environment, filter);
+				getMetrics().add(SpringConfigMetrics.Phase.RESOLVE, System.nanoTime() - start);
+				if (cacheKey != null) {
+					cache.put(cacheKey, environmentWrapper);
+					getLogger().println();
+					getLogger().println("Spring config cache miss (" + cache.getStatistics() + ")");
+				}
+				return environmentWrapper;
+			}
+
+			protected List<String> resolveLocations() {
+				if (location == null || location.equals("")) {
+					return Collections.singletonList(ws.getRemote() + "/");
+				}
+				return Arrays.stream(location.split(",")).map(single -> {
+					String remoteLocation = new FilePath(ws, single).getRemote();
+					char lastChar = single.charAt(single.length() - 1);
+					if (lastChar == '/' || lastChar == '\\') {
+						remoteLocation += lastChar;
+					}
+					return remoteLocation;
+				}).collect(Collectors.toList());
+			}
+
+			/**
+			 * Reads the config files from the source instead of the file system, to run the
+			 * execution locally.
+			 */
+			AbstractExecution<V> withSource(SpringConfigLoader.ConfigSource source) {
+				this.source = source;
+				return this;
+			}
+
+			/**
+			 * The phases measured by this execution in the current JVM.
+			 */
+			synchronized SpringConfigMetrics getMetrics() {
+				if (metrics == null) {
+					metrics = new SpringConfigMetrics(null);
+				}
+				return metrics;
+			}
+
+			protected FilePath getWorkspace() {
+				return ws;
+			}
+
+			protected SpringConfigLoader newLoader() {
+				return source == null ? new SpringConfigLoader() : new SpringConfigLoader(source);
 			}
 
 			@SneakyThrows
-			private PrintStream getLogger() {
+			protected synchronized PrintStream getLogger() {
 				if (localLogger == null) {
 					localLogger = new PrintStream(remoteLogger, true, StandardCharsets.UTF_8.name());
 				}
@@ -201,6 +733,173 @@ public class SpringConfigStep extends Step implements Serializable {
 
 		}
 
+		public static class Execution extends AbstractExecution<EnvironmentWrapper> {
+
+			private static final long serialVersionUID = 1L;
+
+			private final List<String> profiles;
+
+			public Execution(List<String> profiles, String location, SpringConfigEngine engine,
+					PropertyKeyFilter filter, PrintStream logger, FilePath ws) {
+				super(location, engine, filter, logger, ws);
+				this.profiles = ImmutableList.copyOf(profiles);
+			}
+
+			@Override
+			protected EnvironmentWrapper resolveAll() throws IOException {
+				return resolve(newLoader(), profiles, resolveLocations());
+			}
+
+		}
+
+		/**
+		 * Resolves several profile sets in one round trip, each config file is parsed once.
+		 */
+		public static class BatchExecution extends AbstractExecution<LinkedHashMap<String, EnvironmentWrapper>> {
+
+			private static final long serialVersionUID = 1L;
+
+			private final List<List<String>> profileSets;
+
+			public BatchExecution(List<List<String>> profileSets, String location, SpringConfigEngine engine,
+					PropertyKeyFilter filter, PrintStream logger, FilePath ws) {
+				super(location, engine, filter, logger, ws);
+				this.profileSets = profileSets.stream().<List<String>>map(ImmutableList::copyOf)
+						.collect(ImmutableList.toImmutableList());
+			}
+
+			@Override
+			protected LinkedHashMap<String, EnvironmentWrapper> resolveAll() throws IOException {
+				List<String> locations = resolveLocations();
+				SpringConfigLoader loader = newLoader();
+				LinkedHashMap<String, EnvironmentWrapper> environmentWrappers = new LinkedHashMap<>();
+				for (List<String> profiles : profileSets) {
+					// Keyed as requested, sets may activate the same profiles
+					environmentWrappers.put(String.join(",", profiles), resolve(loader, profiles, locations));
+				}
+				return environmentWrappers;
+			}
+
+		}
+
+
+		/**
+		 * Resolves the config of several directories in one round trip, on a fork-join pool
+		 * of the JVM owning the workspace. The failure of a directory is returned with its
+		 * directory, the others are resolved unless failing fast.
+		 */
+		public static class FanOutExecution extends AbstractExecution<FanOutResult> {
+
+			private static final long serialVersionUID = 1L;
+
+			private final List<String> profiles;
+
+			private final List<String> directories;
+
+			private final String baseDirectory;
+
+			private final int parallelism;
+
+			private final boolean failFast;
+
+			public FanOutExecution(List<String> profiles, List<String> directories, String baseDirectory,
+					int parallelism, boolean failFast, SpringConfigEngine engine, PropertyKeyFilter filter,
+					PrintStream logger, FilePath ws) {
+				super(null, engine, filter, logger, ws);
+				this.profiles = ImmutableList.copyOf(profiles);
+				this.directories = directories == null ? null : ImmutableList.copyOf(directories);
+				this.baseDirectory = baseDirectory;
+				this.parallelism = parallelism;
+				this.failFast = failFast;
+			}
+
+			@Override
+			protected FanOutResult resolveAll() throws IOException {
+				Map<String, String> locations = resolveDirectories();
+				int threads = Math.max(1, Math.min(locations.size(),
+						parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors()));
+				getLogger().printf("Resolving the config of %d directories with %d threads%n", locations.size(),
+						threads);
+				// Spring looks its classes up in the context class loader, the remoting one on an agent
+				ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+				ForkJoinPool pool = new ForkJoinPool(threads, forkJoinPool -> {
+					ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory
+							.newThread(forkJoinPool);
+					thread.setContextClassLoader(classLoader);
+					return thread;
+				}, null, false);
+				try {
+					Map<String, ForkJoinTask<EnvironmentWrapper>> tasks = new LinkedHashMap<>();
+					locations.forEach((directory, location) -> tasks.put(directory,
+							pool.submit(() -> resolve(newLoader(), profiles, Collections.singletonList(location)))));
+					FanOutResult result = new FanOutResult();
+					for (Map.Entry<String, ForkJoinTask<EnvironmentWrapper>> task : tasks.entrySet()) {
+						try {
+							result.configs.put(task.getKey(), task.getValue().get());
+						}
+						catch (ExecutionException e) {
+							Throwable cause = e.getCause() == null ? e : e.getCause();
+							result.failures.put(task.getKey(),
+									cause.getMessage() == null ? cause.toString() : cause.getMessage());
+							if (failFast) {
+								// The pool is shut down, the tasks left are cancelled
+								break;
+							}
+						}
+					}
+					return result;
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while resolving the config of the directories");
+				}
+				finally {
+					pool.shutdownNow();
+				}
+			}
+
+			/**
+			 * The location of each directory, by the name returned to the pipeline.
+			 */
+			private Map<String, String> resolveDirectories() throws IOException {
+				Map<String, String> locations = new LinkedHashMap<>();
+				if (directories != null) {
+					for (String directory : directories) {
+						locations.put(directory, new FilePath(getWorkspace(), directory).getRemote() + File.separator);
+					}
+					return locations;
+				}
+				File base = new File(new FilePath(getWorkspace(), baseDirectory).getRemote());
+				File[] subdirectories = base.listFiles(File::isDirectory);
+				if (subdirectories == null) {
+					throw new FileNotFoundException("Base directory '" + base + "' does not exist");
+				}
+				Arrays.sort(subdirectories);
+				for (File subdirectory : subdirectories) {
+					String location = subdirectory.getPath() + File.separator;
+					if (!ConfigFileNames.candidateFiles(location).isEmpty()) {
+						locations.put(subdirectory.getName(), location);
+					}
+				}
+				return locations;
+			}
+
+		}
+
+		/**
+		 * The configs resolved by a {@link FanOutExecution} and the error of each directory
+		 * that failed, by directory.
+		 */
+		@Getter
+		public static class FanOutResult implements Serializable {
+
+			private static final long serialVersionUID = 1L;
+
+			private final LinkedHashMap<String, EnvironmentWrapper> configs = new LinkedHashMap<>();
+
+			private final LinkedHashMap<String, String> failures = new LinkedHashMap<>();
+
+		}
 	}
 
 	@Configuration
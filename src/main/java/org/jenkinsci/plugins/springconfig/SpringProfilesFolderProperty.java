@@ -4,21 +4,27 @@ import com.cloudbees.hudson.plugins.folder.AbstractFolder;
 import com.cloudbees.hudson.plugins.folder.AbstractFolderProperty;
 import com.cloudbees.hudson.plugins.folder.AbstractFolderPropertyDescriptor;
 import hudson.Extension;
+import hudson.model.Action;
 import hudson.model.Descriptor;
 import hudson.model.Item;
-import hudson.model.ItemGroup;
 import hudson.model.Job;
-import jenkins.model.Jenkins;
+import jenkins.model.TransientActionFactory;
 import lombok.Getter;
-import lombok.Setter;
 import lombok.extern.java.Log;
 import net.sf.json.JSONObject;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
 
 import javax.annotation.Nonnull;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
@@ -29,7 +35,6 @@ public class SpringProfilesFolderProperty<C extends AbstractFolder<?>> extends A
 		implements SpringProfilesStore {
 
 	@Getter
-	@Setter
 	@DataBoundSetter
 	private String springProfiles = "";
 
@@ -41,6 +46,13 @@ public class SpringProfilesFolderProperty<C extends AbstractFolder<?>> extends A
 		log.log(Level.FINER, "Instantiating new SpringProfileFolderProperty\n");
 	}
 
+	public void setSpringProfiles(String springProfiles) {
+		this.springProfiles = springProfiles;
+		if (owner != null) {
+			FolderProfilesCache.getInstance().invalidate(owner);
+		}
+	}
+
 	@Override
 	public AbstractFolderProperty<?> reconfigure(StaplerRequest request, JSONObject formData)
 			throws Descriptor.FormException {
@@ -77,34 +89,115 @@ public class SpringProfilesFolderProperty<C extends AbstractFolder<?>> extends A
 
 	}
 
+	/**
+	 * The profiles of the folders containing the job, outermost first.
+	 */
 	static List<String> retrieveSpringProfileFromFolderConfig(Job job) {
-		List<String> springProfiles = new ArrayList<>();
-		ItemGroup parent = job.getParent();
-		while (parent != null) {
-			if (parent instanceof AbstractFolder) {
-				List<String> folderProfiles = retrieveSpringProfilesFromSingleFolder((AbstractFolder) parent);
-				springProfiles.addAll(0, folderProfiles);
+		return FolderProfilesCache.getInstance().get(job.getParent());
+	}
+
+	static List<String> retrieveSpringProfilesFromSingleFolder(AbstractFolder folder) {
+		return Optional.ofNullable(folder)
+				.map(thisFolder -> thisFolder.getProperties().get(SpringProfilesFolderProperty.class))
+				.map(SpringProfilesFolderProperty.class::cast)
+				.map(SpringProfilesLoader::retrieveSpringProfilesFromStore).orElseGet(Collections::emptyList);
+
+	}
+
+	/**
+	 * Streams as JSON the effective profiles of every job below the folder the user can
+	 * see the configuration of, in one traversal reusing each folder's profiles for its
+	 * children: <pre>
+	 * {"folder": "top", "jobs": {"top/child/job": ["profile1", "profile2"]}}
+	 * </pre>
+	 */
+	static void writeEffectiveProfiles(Writer writer, AbstractFolder<?> folder) throws IOException {
+		writer.write("{\"folder\":");
+		ConfigDownloadFormat.escapeJson(writer, folder.getFullName());
+		writer.write(",\"jobs\":{");
+		writeEffectiveProfiles(writer, folder, FolderProfilesCache.getInstance().get(folder), true);
+		writer.write("}}");
+	}
+
+	private static boolean writeEffectiveProfiles(Writer writer, AbstractFolder<?> folder,
+			List<String> folderProfiles, boolean first) throws IOException {
+		for (Item item : folder.getItems()) {
+			if (item instanceof AbstractFolder) {
+				AbstractFolder<?> child = (AbstractFolder<?>) item;
+				List<String> childProfiles = new ArrayList<>(folderProfiles);
+				childProfiles.addAll(retrieveSpringProfilesFromSingleFolder(child));
+				first = writeEffectiveProfiles(writer, child, childProfiles, first);
 			}
-			else if (parent instanceof Jenkins) {
-				break;
+			else if (item instanceof Job && item.hasPermission(Item.EXTENDED_READ)) {
+				if (!first) {
+					writer.write(',');
+				}
+				first = false;
+				ConfigDownloadFormat.escapeJson(writer, item.getFullName());
+				writer.write(":[");
+				List<String> profiles = SpringProfilesLoader.mergeProfiles(folderProfiles,
+						SpringProfilesJobProperty.retrieveSpringProfilesFromJobConfig((Job) item));
+				for (int i = 0; i < profiles.size(); i++) {
+					if (i > 0) {
+						writer.write(',');
+					}
+					ConfigDownloadFormat.escapeJson(writer, profiles.get(i));
+				}
+				writer.write(']');
 			}
+		}
+		return first;
+	}
 
-			if (parent instanceof Item) {
-				parent = ((Item) parent).getParent();
-			}
-			else {
-				parent = null;
+	/**
+	 * Serves {@link #writeEffectiveProfiles} at {@code springProfiles/} on every folder.
+	 */
+	public static class EffectiveProfilesAction implements Action {
+
+		private final AbstractFolder<?> folder;
+
+		EffectiveProfilesAction(AbstractFolder<?> folder) {
+			this.folder = folder;
+		}
+
+		@Override
+		public String getIconFileName() {
+			return null;
+		}
+
+		@Override
+		public String getDisplayName() {
+			return "Spring Profiles";
+		}
+
+		@Override
+		public String getUrlName() {
+			return "springProfiles";
+		}
+
+		public void doIndex(StaplerRequest request, StaplerResponse response) throws IOException {
+			response.setContentType("application/json;charset=UTF-8");
+			try (Writer writer = new BufferedWriter(
+					new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8))) {
+				writeEffectiveProfiles(writer, folder);
 			}
 		}
 
-		return springProfiles;
 	}
 
-	static List<String> retrieveSpringProfilesFromSingleFolder(AbstractFolder folder) {
-		return Optional.ofNullable(folder)
-				.map(thisFolder -> thisFolder.getProperties().get(SpringProfilesFolderProperty.class))
-				.map(SpringProfilesFolderProperty.class::cast)
-				.map(SpringProfilesLoader::retrieveSpringProfilesFromStore).orElseGet(Collections::emptyList);
+	@Extension
+	public static class EffectiveProfilesActionFactory extends TransientActionFactory<AbstractFolder> {
+
+		@Override
+		public Class<AbstractFolder> type() {
+			return AbstractFolder.class;
+		}
+
+		@Nonnull
+		@Override
+		public Collection<? extends Action> createFor(@Nonnull AbstractFolder target) {
+			return Collections.singletonList(new EffectiveProfilesAction(target));
+		}
 
 	}
 
@@ -9,6 +9,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Log
 public class SpringProfilesLoader {
@@ -19,4 +20,11 @@ public class SpringProfilesLoader {
 				.orElseGet(Collections::emptyList);
 	}
 
+	/**
+	 * The profiles of a job: those of its folders followed by its own, without duplicates.
+	 */
+	static List<String> mergeProfiles(List<String> folderProfiles, List<String> jobProfiles) {
+		return Stream.of(folderProfiles, jobProfiles).flatMap(List::stream).distinct().collect(Collectors.toList());
+	}
+
 }
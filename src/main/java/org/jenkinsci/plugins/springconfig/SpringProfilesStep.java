@@ -15,8 +15,6 @@ import javax.annotation.Nonnull;
 import java.io.Serializable;
 import java.util.List;
 import java.util.Set;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import static org.jenkinsci.plugins.springconfig.SpringProfilesFolderProperty.retrieveSpringProfileFromFolderConfig;
 import static org.jenkinsci.plugins.springconfig.SpringProfilesJobProperty.retrieveSpringProfilesFromJobConfig;
@@ -71,8 +69,8 @@ public class SpringProfilesStep extends Step implements Serializable {
 			Job job = getContext().get(Run.class).getParent();
 			List<String> retrieveSpringProfilesFromJobConfig = retrieveSpringProfilesFromJobConfig(job);
 			List<String> retrievedSpringProfilesFromSingleFolder = retrieveSpringProfileFromFolderConfig(job);
-			return Stream.of(retrievedSpringProfilesFromSingleFolder, retrieveSpringProfilesFromJobConfig)
-					.flatMap(List::stream).distinct().collect(Collectors.toList());
+			return SpringProfilesLoader.mergeProfiles(retrievedSpringProfilesFromSingleFolder,
+					retrieveSpringProfilesFromJobConfig);
 		}
 
 	}
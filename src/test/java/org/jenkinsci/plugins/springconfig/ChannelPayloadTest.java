@@ -0,0 +1,74 @@
+package org.jenkinsci.plugins.springconfig;
+
+import org.junit.Test;
+import org.springframework.boot.env.OriginTrackedMapPropertySource;
+import org.springframework.boot.origin.OriginTrackedValue;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ChannelPayloadTest {
+
+	@Test
+	public void compressedAboveThreshold() throws Exception {
+		EnvironmentWrapper env = generated(20000);
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		ChannelPayload<EnvironmentWrapper> payload = ChannelPayload.of(env, 65536, new PrintStream(log, true),
+				new SpringConfigMetrics(""), System.nanoTime());
+		assertThat(payload.isCompressed()).isTrue();
+		assertThat(payload.getSize()).isLessThan(serialize(env).length / 4);
+		assertThat(log.toString()).startsWith("Sending the config compressed: " + serialize(env).length + " bytes");
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialize(payload)))) {
+			ChannelPayload<EnvironmentWrapper> copy = (ChannelPayload<EnvironmentWrapper>) in.readObject();
+			assertThat(copy.get().asProperties()).isEqualTo(env.asProperties());
+		}
+	}
+
+	@Test
+	public void notCompressedBelowThreshold() throws Exception {
+		EnvironmentWrapper env = generated(10);
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		ChannelPayload<EnvironmentWrapper> payload = ChannelPayload.of(env, 65536, new PrintStream(log, true),
+				new SpringConfigMetrics(""), System.nanoTime());
+		assertThat(payload.isCompressed()).isFalse();
+		assertThat(log.toString()).contains("uncompressed");
+		assertThat(payload.get().asProperties()).isEqualTo(env.asProperties());
+	}
+
+	@Test
+	public void negativeThresholdDisablesCompression() throws Exception {
+		EnvironmentWrapper env = generated(20000);
+		ChannelPayload<EnvironmentWrapper> payload = ChannelPayload.of(env, -1,
+				new PrintStream(new ByteArrayOutputStream(), true), new SpringConfigMetrics(""), System.nanoTime());
+		assertThat(payload.isCompressed()).isFalse();
+		assertThat(payload.getSize()).isEqualTo(serialize(env).length);
+	}
+
+	private static EnvironmentWrapper generated(int size) {
+		Map<String, Object> map = new HashMap<>();
+		for (int i = 0; i < size; i++) {
+			map.put("services.service" + (i / 10) + ".endpoints[" + (i % 10) + "].url",
+					OriginTrackedValue.of("https://host" + (i % 7) + ".example.com/path", null));
+		}
+		StandardEnvironment environment = new StandardEnvironment();
+		environment.getPropertySources().addLast(new OriginTrackedMapPropertySource("generated", map));
+		return new EnvironmentWrapper(environment);
+	}
+
+	private static byte[] serialize(Object object) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(object);
+		}
+		return bytes.toByteArray();
+	}
+
+}
@@ -9,10 +9,20 @@ import org.springframework.boot.origin.OriginTrackedValue;
 import org.springframework.core.env.MutablePropertySources;
 import org.springframework.core.env.StandardEnvironment;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
 import static org.mockito.AdditionalAnswers.returnsFirstArg;
 import static org.mockito.Mockito.*;
 
@@ -57,6 +67,18 @@ public class EnvironmentWrapperTest {
 		assertThat(properties).hasSize(5).containsKeys("key", "in.nested.key", "arraykey[0]", "arraykey[1]", "noascii");
 	}
 
+	@Test
+	public void copySharesNothingModifiable() {
+		when(standardEnvironment.getActiveProfiles()).thenReturn(new String[] { "p1", "p2" });
+		EnvironmentWrapper env = new EnvironmentWrapper(standardEnvironment);
+		EnvironmentWrapper copy = env.copy();
+		copy.asProperties().put("key", "changed");
+		copy.asProperties().remove("noascii");
+		assertThat(copy.getProfilesAsString()).isEqualTo("p1,p2");
+		assertThat(env.asProperties()).hasSize(5).doesNotContainEntry("key", "changed");
+		assertThat(env.get("key")).isNotEqualTo("changed");
+	}
+
 	@Test
 	public void asPropertiesFileContent() {
 		when(standardEnvironment.getActiveProfiles()).thenReturn(new String[] { "p1", "p2" });
@@ -76,4 +98,186 @@ public class EnvironmentWrapperTest {
 				.asInstanceOf(InstanceOfAssertFactories.STRING).isEqualTo("value2");
 	}
 
-}
\ No newline at end of file
+	@Test
+	public void asPropertiesWithIncludePrefix() {
+		when(standardEnvironment.getActiveProfiles()).thenReturn(new String[] { "p1", "p2" });
+		EnvironmentWrapper env = new EnvironmentWrapper(standardEnvironment,
+				new PropertyKeyFilter(Arrays.asList("in", "arraykey"), null));
+		assertThat(env.asProperties()).containsOnlyKeys("in.nested.key", "arraykey[0]", "arraykey[1]");
+	}
+
+	@Test
+	public void asPropertiesWithGlobAndExclude() {
+		when(standardEnvironment.getActiveProfiles()).thenReturn(new String[] { "p1", "p2" });
+		EnvironmentWrapper env = new EnvironmentWrapper(standardEnvironment,
+				new PropertyKeyFilter(Collections.singletonList("*key*"), Collections.singletonList("arraykey[1]")));
+		assertThat(env.asProperties()).containsOnlyKeys("key", "in.nested.key", "arraykey[0]");
+	}
+
+	@Test
+	public void prefixDoesNotMatchLongerSegment() {
+		PropertyKeyFilter filter = new PropertyKeyFilter(Collections.singletonList("app.image"), null);
+		assertThat(filter.test("app.image")).isTrue();
+		assertThat(filter.test("app.image.tag")).isTrue();
+		assertThat(filter.test("app.image[0]")).isTrue();
+		assertThat(filter.test("app.images")).isFalse();
+	}
+
+	@Test
+	public void deserializedFilterMatchesLikeTheOriginal() throws Exception {
+		PropertyKeyFilter filter = new PropertyKeyFilter(Collections.singletonList("app.*"),
+				Collections.singletonList("app.secret"));
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialize(filter)))) {
+			PropertyKeyFilter copy = (PropertyKeyFilter) in.readObject();
+			assertThat(copy.test("app.image")).isTrue();
+			assertThat(copy.test("app.secret")).isFalse();
+			assertThat(copy.test("other")).isFalse();
+		}
+	}
+
+	@Test
+	public void nestedViewsAreBuiltOnceAndIndexed() {
+		when(standardEnvironment.getActiveProfiles()).thenReturn(new String[] { "p1", "p2" });
+		Map env = new EnvironmentWrapper(standardEnvironment);
+		assertThat(env.containsKey("in")).isTrue();
+		assertThat(env.containsKey("nested")).isFalse();
+		assertThat(env.get("in")).isSameAs(env.get("in"));
+		assertThat(env.get("arraykey")).isSameAs(env.get("arraykey"));
+	}
+
+	@Test
+	public void nestedMapWithValueAndChildren() {
+		Map<String, String> properties = new LinkedHashMap<>();
+		properties.put("org.x", "value");
+		properties.put("org.x.y", "nested");
+		properties.put("list[1].name", "second");
+		properties.put("list[0][1]", "inner");
+		Map<String, Object> map = new NestedPropertyMap(properties);
+		assertThat(map.get("org")).asInstanceOf(InstanceOfAssertFactories.MAP).containsEntry("x", "value")
+				.containsEntry("x.y", "nested");
+		assertThat(map.get("list")).asInstanceOf(InstanceOfAssertFactories.LIST).hasSize(2);
+		assertThat(((List) map.get("list")).get(0)).asInstanceOf(InstanceOfAssertFactories.LIST)
+				.containsExactly(null, "inner");
+		assertThat(((List) map.get("list")).get(1)).asInstanceOf(InstanceOfAssertFactories.MAP)
+				.containsEntry("name", "second");
+	}
+
+	@Test
+	public void nestedViewsSerializeAsPlainCollections() throws Exception {
+		when(standardEnvironment.getActiveProfiles()).thenReturn(new String[] { "p1", "p2" });
+		Map env = new EnvironmentWrapper(standardEnvironment);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(env.get("in"));
+			out.writeObject(env.get("arraykey"));
+		}
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			assertThat(in.readObject()).isInstanceOf(LinkedHashMap.class).isEqualTo(env.get("in"));
+			assertThat(in.readObject()).isInstanceOf(ArrayList.class).isEqualTo(env.get("arraykey"));
+		}
+	}
+
+	@Test
+	public void serializationRoundTrip() throws Exception {
+		when(standardEnvironment.getActiveProfiles()).thenReturn(new String[] { "p1", "p2" });
+		EnvironmentWrapper env = new EnvironmentWrapper(standardEnvironment);
+		EnvironmentWrapper copy = roundTrip(env);
+		assertThat(copy.asProperties()).isEqualTo(env.asProperties());
+		assertThat(copy.getProfiles()).containsExactly("p1", "p2");
+		assertThat(copy).isEqualTo(env);
+	}
+
+	@Test
+	public void readsLegacyYamlFormat() throws Exception {
+		when(standardEnvironment.getActiveProfiles()).thenReturn(new String[] { "p1", "p2" });
+		EnvironmentWrapper env = new EnvironmentWrapper(standardEnvironment);
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(write(env, true)))) {
+			EnvironmentWrapper copy = EnvironmentWrapper.readFrom(in);
+			assertThat(copy.asProperties()).isEqualTo(env.asProperties());
+			assertThat(copy.getProfiles()).containsExactly("p1", "p2");
+		}
+	}
+
+	@Test
+	public void compactFormatHasNoSizeLimit() throws Exception {
+		EnvironmentWrapper env = generated(20000);
+		assertThat(serialize(env).length).isGreaterThan(65536);
+		assertThat(roundTrip(env).asProperties()).isEqualTo(env.asProperties());
+	}
+
+	@Test
+	public void compactFormatIsSmallerThanYaml() throws Exception {
+		EnvironmentWrapper env = generated(2000);
+		assertThat(write(env, false).length).isLessThan(write(env, true).length);
+	}
+
+	private static EnvironmentWrapper generated(int size) {
+		Map<String, Object> map = new HashMap<>();
+		for (int i = 0; i < size; i++) {
+			map.put("services.service" + (i / 10) + ".endpoints[" + (i % 10) + "].url",
+					OriginTrackedValue.of("https://host" + (i % 7) + ".example.com/path", null));
+		}
+		StandardEnvironment environment = new StandardEnvironment();
+		environment.getPropertySources().addLast(new OriginTrackedMapPropertySource("generated", map));
+		return new EnvironmentWrapper(environment);
+	}
+
+	private static byte[] serialize(Object object) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(object);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static byte[] write(EnvironmentWrapper env, boolean legacy) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			env.writeTo(out, legacy);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static EnvironmentWrapper roundTrip(EnvironmentWrapper env) throws Exception {
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialize(env)))) {
+			return (EnvironmentWrapper) in.readObject();
+		}
+	}
+
+	@Test
+	public void higherPrecedenceArrayReplacesWholeArray() {
+		Map<String, Object> low = new HashMap<>();
+		low.put("servers[0].host", OriginTrackedValue.of("low0", null));
+		low.put("servers[1].host", OriginTrackedValue.of("low1", null));
+		low.put("servers[2].host", OriginTrackedValue.of("low2", null));
+		low.put("other[0]", OriginTrackedValue.of("lowother", null));
+		low.put("key", OriginTrackedValue.of("low", null));
+		low.put("lowonly", OriginTrackedValue.of("low", null));
+		Map<String, Object> high = new HashMap<>();
+		high.put("servers[0].host", OriginTrackedValue.of("high0", null));
+		high.put("servers[1].host", OriginTrackedValue.of("high1", null));
+		high.put("key", OriginTrackedValue.of("high", null));
+		StandardEnvironment environment = new StandardEnvironment();
+		environment.getPropertySources().addLast(new OriginTrackedMapPropertySource("high", high));
+		environment.getPropertySources().addLast(new OriginTrackedMapPropertySource("low", low));
+		assertThat(new EnvironmentWrapper(environment).asProperties()).containsOnly(
+				entry("servers[0].host", "high0"), entry("servers[1].host", "high1"), entry("other[0]", "lowother"),
+				entry("key", "high"), entry("lowonly", "low"));
+	}
+
+	@Test(timeout = 30000)
+	public void flattensLargeArraysInLinearTime() {
+		Map<String, Object> low = new HashMap<>();
+		Map<String, Object> high = new HashMap<>();
+		for (int i = 0; i < 100000; i++) {
+			low.put("allowlist[" + i + "]", OriginTrackedValue.of("low" + i, null));
+			high.put("allowlist[" + i + "]", OriginTrackedValue.of("high" + i, null));
+		}
+		StandardEnvironment environment = new StandardEnvironment();
+		environment.getPropertySources().addLast(new OriginTrackedMapPropertySource("high", high));
+		environment.getPropertySources().addLast(new OriginTrackedMapPropertySource("low", low));
+		Map<String, String> properties = new EnvironmentWrapper(environment).asProperties();
+		assertThat(properties).hasSize(100000).containsEntry("allowlist[99999]", "high99999");
+	}
+
+}
@@ -0,0 +1,110 @@
+package org.jenkinsci.plugins.springconfig;
+
+import org.junit.Test;
+import org.springframework.boot.env.OriginTrackedMapPropertySource;
+import org.springframework.boot.env.RandomValuePropertySource;
+import org.springframework.core.env.MutablePropertySources;
+import org.springframework.core.env.PropertySource;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
+
+public class MemoizedPlaceholderResolverTest {
+
+	@Test
+	public void resolvesLikeEnvironment() {
+		Map<String, Object> properties = new LinkedHashMap<>();
+		properties.put("base.url", "https://${host}:${port:8080}");
+		properties.put("host", "example.com");
+		properties.put("api", "${base.url}/api");
+		properties.put("missing", "${not.there}");
+		properties.put("nested", "${${name}}");
+		properties.put("name", "host");
+		assertThat(resolver(properties).resolveAll(properties)).containsOnly(
+				entry("base.url", "https://example.com:8080"), entry("host", "example.com"),
+				entry("api", "https://example.com:8080/api"), entry("missing", "${not.there}"),
+				entry("nested", "example.com"), entry("name", "host"));
+	}
+
+	@Test
+	public void resolvesSharedPlaceholderOnce() {
+		Map<String, Object> properties = new LinkedHashMap<>();
+		properties.put("base.url", "https://example.com");
+		for (int i = 0; i < 1000; i++) {
+			properties.put("url" + i, "${base.url}/" + i);
+		}
+		AtomicInteger lookups = new AtomicInteger();
+		MutablePropertySources sources = new MutablePropertySources();
+		sources.addLast(new PropertySource<Map<String, Object>>("counting", properties) {
+
+			@Override
+			public Object getProperty(String name) {
+				if (name.equals("base.url")) {
+					lookups.incrementAndGet();
+				}
+				return getSource().get(name);
+			}
+
+		});
+		Map<String, String> resolved = new MemoizedPlaceholderResolver(sources).resolveAll(properties);
+		assertThat(resolved).containsEntry("url999", "https://example.com/999");
+		assertThat(lookups).hasValue(1);
+	}
+
+	@Test
+	public void reportsCycle() {
+		Map<String, Object> properties = new LinkedHashMap<>();
+		properties.put("a", "${b}");
+		properties.put("b", "x${c}");
+		properties.put("c", "${a}");
+		assertThatThrownBy(() -> resolver(properties).resolveAll(properties))
+				.isInstanceOf(IllegalArgumentException.class).hasMessageContaining("a -> b -> c -> a");
+	}
+
+	@Test
+	public void resolvesInParallel() {
+		Map<String, Object> properties = new LinkedHashMap<>();
+		for (int i = 0; i < 100; i++) {
+			properties.put("base" + i, "value" + i);
+			properties.put("ref" + i, "${base" + i + "}-${base0}");
+		}
+		MutablePropertySources sources = new MutablePropertySources();
+		sources.addLast(new OriginTrackedMapPropertySource("properties", properties));
+		Map<String, String> resolved = new MemoizedPlaceholderResolver(sources, true).resolveAll(properties);
+		assertThat(resolved).hasSize(200).containsEntry("ref42", "value42-value0");
+	}
+
+	@Test
+	public void resolvesRandomValuesOnEveryReference() {
+		Map<String, Object> properties = new LinkedHashMap<>();
+		properties.put("first", "${random.uuid}");
+		properties.put("second", "${random.uuid}");
+		properties.put("id", "${random.uuid}");
+		properties.put("first.id", "${id}");
+		properties.put("second.id", "${id}");
+		properties.put("host", "example.com");
+		properties.put("url", "https://${host}/${random.uuid}");
+		MutablePropertySources sources = new MutablePropertySources();
+		sources.addLast(new OriginTrackedMapPropertySource("properties", properties));
+		sources.addLast(new RandomValuePropertySource());
+		MemoizedPlaceholderResolver resolver = new MemoizedPlaceholderResolver(sources);
+		Map<String, String> resolved = resolver.resolveAll(properties);
+		assertThat(resolved.get("first")).isNotEqualTo(resolved.get("second"));
+		assertThat(resolved.get("first.id")).isNotEqualTo(resolved.get("second.id"));
+		assertThat(resolved.get("url")).startsWith("https://example.com/");
+		assertThat(resolver.resolve("${url}")).isNotEqualTo(resolved.get("url"));
+		assertThat(resolver.resolve("${host}")).isEqualTo("example.com");
+	}
+
+	private static MemoizedPlaceholderResolver resolver(Map<String, Object> properties) {
+		MutablePropertySources sources = new MutablePropertySources();
+		sources.addLast(new OriginTrackedMapPropertySource("properties", properties));
+		return new MemoizedPlaceholderResolver(sources);
+	}
+
+}
@@ -0,0 +1,97 @@
+package org.jenkinsci.plugins.springconfig;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.FileNotFoundException;
+import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class RecordedConfigStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void identicalPropertiesAreStoredOnce() throws Exception {
+		RecordedConfigStore store = new RecordedConfigStore(folder.getRoot());
+		Map<String, String> properties = new LinkedHashMap<>();
+		properties.put("b", "2");
+		properties.put("a", "1");
+		Map<String, String> reordered = new LinkedHashMap<>();
+		reordered.put("a", "1");
+		reordered.put("b", "2");
+
+		String hash = store.put(properties);
+		assertThat(store.put(reordered)).isEqualTo(hash);
+		assertThat(store.getFile(hash)).isFile();
+		assertThat(store.get(hash)).isEqualTo(properties).isSameAs(store.get(hash));
+		assertThat(store.put(Collections.singletonMap("a", "1"))).isNotEqualTo(hash);
+	}
+
+	@Test
+	public void propertiesAreReadBackFromDisk() throws Exception {
+		Map<String, String> properties = Collections.singletonMap("a.b[0]", null);
+		String hash = new RecordedConfigStore(folder.getRoot()).put(properties);
+		assertThat(new RecordedConfigStore(folder.getRoot()).get(hash)).isEqualTo(properties);
+	}
+
+	@Test
+	public void sweepKeepsLiveAndRecentObjects() throws Exception {
+		RecordedConfigStore store = new RecordedConfigStore(folder.getRoot());
+		String live = store.put(Collections.singletonMap("a", "1"));
+		String recent = store.put(Collections.singletonMap("a", "2"));
+		String old = store.put(Collections.singletonMap("a", "3"));
+		long cutoff = System.currentTimeMillis() - 60_000;
+		store.getFile(live).setLastModified(cutoff - 1000);
+		store.getFile(old).setLastModified(cutoff - 1000);
+
+		assertThat(store.sweep(Collections.singleton(live), cutoff)).isEqualTo(1);
+		assertThat(store.getFile(live)).isFile();
+		assertThat(store.getFile(recent)).isFile();
+		assertThat(store.getFile(old)).doesNotExist();
+		assertThatThrownBy(() -> store.get(old)).isInstanceOf(FileNotFoundException.class);
+	}
+
+	@Test
+	public void sweepKeepsObjectsReused() throws Exception {
+		RecordedConfigStore store = new RecordedConfigStore(folder.getRoot());
+		String hash = store.put(Collections.singletonMap("a", "1"));
+		long cutoff = System.currentTimeMillis() - 60_000;
+		store.getFile(hash).setLastModified(cutoff - 1000);
+
+		assertThat(store.put(Collections.singletonMap("a", "1"))).isEqualTo(hash);
+		assertThat(store.sweep(Collections.emptySet(), cutoff)).isZero();
+		assertThat(store.getFile(hash)).isFile();
+	}
+
+	@Test
+	public void sizeIsEstimatedFromTheEntries() throws Exception {
+		RecordedConfigStore store = new RecordedConfigStore(folder.getRoot());
+		Map<String, String> properties = new LinkedHashMap<>();
+		properties.put("a", "1");
+		properties.put("b", null);
+		String hash = store.put(properties);
+
+		assertThat(RecordedConfigStore.estimateSize(Collections.emptyMap())).isEqualTo(64);
+		assertThat(RecordedConfigStore.estimateSize(properties)).isEqualTo(64 + 21 + (40 + 42 + 42) + (40 + 42));
+		assertThat(store.estimateSize(hash)).isEqualTo(RecordedConfigStore.estimateSize(properties));
+	}
+
+	@Test
+	public void sizeIsEstimatedWithoutReadingTheMap() throws Exception {
+		String hash = new RecordedConfigStore(folder.getRoot()).put(Collections.singletonMap("a", "1"));
+		RecordedConfigStore store = new RecordedConfigStore(folder.getRoot());
+		assertThat(store.estimateSize(hash)).isEqualTo(64 + 10 + (40 + 42 + 42));
+		Field interned = RecordedConfigStore.class.getDeclaredField("interned");
+		interned.setAccessible(true);
+		assertThat((Map<?, ?>) interned.get(store)).isEmpty();
+	}
+
+}
@@ -1,5 +1,6 @@
 package org.jenkinsci.plugins.springconfig;
 
+import com.gargoylesoftware.htmlunit.Page;
 import com.gargoylesoftware.htmlunit.html.DomElement;
 import com.gargoylesoftware.htmlunit.html.HtmlPage;
 import com.gargoylesoftware.htmlunit.html.HtmlTable;
@@ -7,6 +8,8 @@ import com.google.common.collect.Ordering;
 import hudson.FilePath;
 import jenkins.model.Jenkins;
 import lombok.SneakyThrows;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
 import org.assertj.core.api.InstanceOfAssertFactories;
 import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
@@ -15,13 +18,19 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.JenkinsRule;
+import org.yaml.snakeyaml.Yaml;
 
-import java.util.List;
-import java.util.Map;
+import java.io.File;
+import java.io.StringReader;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
 
 public class SpringConfigActionTest {
 
@@ -68,8 +77,8 @@ public class SpringConfigActionTest {
 				.getJSONObject();
 		// @formatter:off
         assertThat(jsonObject)
-                .hasSize(2)
-                .containsKeys("_class", "properties")
+                .hasSize(3)
+                .containsKeys("_class", "properties", "metrics")
                 .extractingByKey("_class")
                 .asInstanceOf(InstanceOfAssertFactories.STRING)
                 .isEqualTo("org.jenkinsci.plugins.springconfig.SpringConfigAction");
@@ -82,4 +91,248 @@ public class SpringConfigActionTest {
                 .isEqualTo("bar");
     }
 
-}
\ No newline at end of file
+	@Test
+	public void testPropertiesAreKeptOutOfBuildXml() throws Exception {
+		WorkflowRun b = r.jenkins.getItemByFullName(jobName, WorkflowJob.class).getBuildByNumber(buildNumber);
+		SpringConfigAction action = b.getAction(SpringConfigAction.class);
+		assertThat(action.getSummaries()).containsOnlyKeys("", "bar");
+		SpringConfigAction.ConfigSummary summary = action.getSummaries().get("");
+		assertThat(summary.getKeyCount()).isEqualTo(6);
+		assertThat(new String(Files.readAllBytes(new File(b.getRootDir(), "build.xml").toPath()),
+				StandardCharsets.UTF_8)).contains("<hash>" + summary.getHash() + "</hash>")
+						.doesNotContain("nestedvalue").doesNotContain("<metrics");
+		assertThat(RecordedConfigStore.getInstance().getFile(summary.getHash())).isFile();
+		assertThat(action.getProperties().get("")).containsEntry("foo", "bar");
+	}
+
+	@Test
+	public void testIdenticalConfigsAreShared() throws Exception {
+		WorkflowJob p = r.jenkins.getItemByFullName(jobName, WorkflowJob.class);
+		WorkflowRun b1 = p.getBuildByNumber(buildNumber);
+		WorkflowRun b2 = r.assertBuildStatusSuccess(p.scheduleBuild2(0));
+		Map<String, String> properties1 = b1.getAction(SpringConfigAction.class).getProperties().get("bar");
+		Map<String, String> properties2 = b2.getAction(SpringConfigAction.class).getProperties().get("bar");
+		assertThat(properties2).isSameAs(properties1);
+	}
+
+	@Test
+	public void testLegacyPropertiesAreMigrated() throws Exception {
+		WorkflowRun b = r.jenkins.getItemByFullName(jobName, WorkflowJob.class).getBuildByNumber(buildNumber);
+		Map<String, Map<String, String>> properties = new HashMap<>(
+				b.getAction(SpringConfigAction.class).getProperties());
+
+		SpringConfigAction action = new SpringConfigAction();
+		Field allProperties = SpringConfigAction.class.getDeclaredField("allProperties");
+		allProperties.setAccessible(true);
+		allProperties.set(action, properties);
+		action.onLoad(b);
+
+		assertThat(allProperties.get(action)).isNull();
+		assertThat(action.getProperties()).isEqualTo(properties);
+		assertThat(action.getSummaries()).containsOnlyKeys("", "bar");
+	}
+
+	@Test
+	public void testUnreferencedConfigsAreSwept() throws Exception {
+		WorkflowRun b = r.jenkins.getItemByFullName(jobName, WorkflowJob.class).getBuildByNumber(buildNumber);
+		String hash = b.getAction(SpringConfigAction.class).getSummaries().get("bar").getHash();
+		RecordedConfigStore store = RecordedConfigStore.getInstance();
+		assertThat(RecordedConfigStore.referencedHashes()).contains(hash);
+		store.sweep(RecordedConfigStore.referencedHashes(), Long.MAX_VALUE);
+		assertThat(store.getFile(hash)).isFile();
+
+		b.delete();
+		assertThat(RecordedConfigStore.referencedHashes()).doesNotContain(hash);
+		store.sweep(RecordedConfigStore.referencedHashes(), Long.MAX_VALUE);
+		assertThat(store.getFile(hash)).doesNotExist();
+	}
+
+	@Test
+	public void testNothingIsSweptWhileAJobFailedToLoad() throws Exception {
+		WorkflowRun b = r.jenkins.getItemByFullName(jobName, WorkflowJob.class).getBuildByNumber(buildNumber);
+		String hash = b.getAction(SpringConfigAction.class).getSummaries().get("bar").getHash();
+		RecordedConfigStore store = RecordedConfigStore.getInstance();
+		b.delete();
+		store.getFile(hash).setLastModified(System.currentTimeMillis() - RecordedConfigStore.GRACE_PERIOD - 60_000);
+		File broken = new File(r.jenkins.getRootDir(), "jobs/broken");
+		assertThat(broken.mkdirs()).isTrue();
+		Files.write(new File(broken, "config.xml").toPath(), "<unknown/>".getBytes(StandardCharsets.UTF_8));
+
+		assertThat(RecordedConfigStore.unloadedItems()).containsExactly(broken);
+		store.sweep();
+		assertThat(store.getFile(hash)).isFile();
+
+		Files.delete(new File(broken, "config.xml").toPath());
+		store.sweep();
+		assertThat(store.getFile(hash)).doesNotExist();
+	}
+
+	@Test
+	public void testFootprintIsEstimated() throws Exception {
+		WorkflowRun b = r.jenkins.getItemByFullName(jobName, WorkflowJob.class).getBuildByNumber(buildNumber);
+		RecordedConfigStore store = RecordedConfigStore.getInstance();
+		long bytes = 0;
+		for (SpringConfigAction.ConfigSummary summary : b.getAction(SpringConfigAction.class).getSummaries()
+				.values()) {
+			bytes += store.estimateSize(summary.getHash());
+		}
+
+		RecordedConfigMonitor.Footprint footprint = RecordedConfigMonitor.Footprint.compute();
+		assertThat(footprint.getBuildCount()).isEqualTo(1);
+		assertThat(footprint.getNotMigratedCount()).isZero();
+		assertThat(footprint.getRetainedBytes()).isEqualTo(bytes);
+		assertThat(footprint.getTopJobs()).extracting("name", "builds", "bytes")
+				.containsExactly(tuple(jobName, 1, bytes));
+		assertThat(footprint.getTopBuilds()).extracting("name", "url")
+				.containsExactly(tuple(jobName + " #" + buildNumber, b.getUrl()));
+
+		RecordedConfigMonitor monitor = RecordedConfigMonitor.get();
+		monitor.refresh();
+		assertThat(monitor.getFootprint().getRetainedBytes()).isEqualTo(bytes);
+		assertThat(monitor.isActivated()).isFalse();
+		r.createWebClient().goTo(monitor.getUrl());
+	}
+
+	@Test
+	public void testFootprintKeepsJobsOfTheSameDisplayNameApart() throws Exception {
+		WorkflowJob q = r.jenkins.createProject(WorkflowJob.class, "q");
+		q.setDisplayName(jobName);
+		r.jenkins.getWorkspaceFor(q).child("application.yaml")
+				.copyFrom(this.getClass().getClassLoader().getResourceAsStream("nodefault/application.yaml"));
+		q.setDefinition(new CpsFlowDefinition("node {springConfig()}", true));
+		r.assertBuildStatusSuccess(q.scheduleBuild2(0));
+
+		RecordedConfigMonitor.Footprint footprint = RecordedConfigMonitor.Footprint.compute();
+		assertThat(footprint.getTopJobs()).extracting("name", "url", "builds").containsExactlyInAnyOrder(
+				tuple(jobName, "job/" + jobName + "/", 1), tuple(jobName, q.getUrl(), 1));
+	}
+
+	@Test
+	public void testOldConfigsAreDropped() throws Exception {
+		WorkflowRun b = r.jenkins.getItemByFullName(jobName, WorkflowJob.class).getBuildByNumber(buildNumber);
+		RecordedConfigMonitor monitor = RecordedConfigMonitor.get();
+		assertThat(monitor.cleanUp(b.getTimeInMillis(), true)).isEqualTo("Dropped the configs of 0 builds, 0 failures");
+		assertThat(monitor.cleanUp(Long.MAX_VALUE, true)).isEqualTo("Dropped the configs of 1 builds, 0 failures");
+
+		assertThat(b.getAction(SpringConfigAction.class)).isNull();
+		assertThat(new String(Files.readAllBytes(new File(b.getRootDir(), "build.xml").toPath()),
+				StandardCharsets.UTF_8)).doesNotContain("<hash>");
+		assertThat(RecordedConfigMonitor.Footprint.compute().getBuildCount()).isZero();
+	}
+
+	@Test
+	public void testFilteredPage() throws Exception {
+		HtmlPage indexPage = r.createWebClient().goTo(
+				String.format("job/%s/%d/springconfig/?q=d.array&mode=prefix&limit=2", jobName, buildNumber));
+		DomElement springConfigPanel = indexPage.getElementById("springconfig-panel");
+		List<HtmlTable> tables = springConfigPanel.getByXPath("table");
+		assertThat(tables).hasSize(2);
+		assertThat(tables.get(0).getRowCount()).isEqualTo(3);
+		assertThat(tables.get(0).getRow(1).getCell(0).asText()).isEqualTo("d.array[0]");
+		assertThat(springConfigPanel.asText()).contains("1 to 2 of 3");
+		assertThat(indexPage.getAnchorByText("next").getHrefAttribute()).contains("start=2");
+	}
+
+	@Test
+	public void testQuery() throws Exception {
+		JSONObject json = r.getJSON(String.format("job/%s/%d/springconfig/query?profiles=bar&q=a.*1&mode=regex&start=1",
+				jobName, buildNumber)).getJSONObject();
+		JSONArray configs = json.getJSONArray("configs");
+		assertThat(configs).hasSize(1);
+		JSONObject config = configs.getJSONObject(0);
+		assertThat(config.getString("profiles")).isEqualTo("bar");
+		assertThat(config.getInt("total")).isEqualTo(2);
+		assertThat(config.getInt("start")).isEqualTo(1);
+		assertThat(config.getJSONArray("properties")).hasSize(1);
+		assertThat(config.getJSONArray("properties").getJSONObject(0).getString("key")).isEqualTo("d.array[1]");
+	}
+
+	@Test
+	public void testQueryOfTheConfigWithoutProfiles() throws Exception {
+		JSONObject json = r.getJSON(String.format("job/%s/%d/springconfig/query?profiles=&q=foo", jobName, buildNumber))
+				.getJSONObject();
+		JSONArray configs = json.getJSONArray("configs");
+		assertThat(configs).hasSize(1);
+		assertThat(configs.getJSONObject(0).getString("profiles")).isEmpty();
+		json = r.getJSON(String.format("job/%s/%d/springconfig/query?q=foo", jobName, buildNumber)).getJSONObject();
+		assertThat(json.getJSONArray("configs")).hasSize(2);
+	}
+
+	@Test
+	public void testQueryWithInvalidRegex() throws Exception {
+		JenkinsRule.WebClient webClient = r.createWebClient();
+		webClient.setThrowExceptionOnFailingStatusCode(false);
+		Page page = webClient.goTo(String.format("job/%s/%d/springconfig/query?q=(&mode=regex", jobName, buildNumber),
+				null);
+		assertThat(page.getWebResponse().getStatusCode()).isEqualTo(400);
+	}
+
+	@Test
+	public void testQueryWithTooLongRegex() throws Exception {
+		JenkinsRule.WebClient webClient = r.createWebClient();
+		webClient.setThrowExceptionOnFailingStatusCode(false);
+		String regex = String.join("", Collections.nCopies(PropertyQuery.MAX_PATTERN_LENGTH + 1, "a"));
+		Page page = webClient.goTo(
+				String.format("job/%s/%d/springconfig/query?q=%s&mode=regex", jobName, buildNumber, regex), null);
+		assertThat(page.getWebResponse().getStatusCode()).isEqualTo(400);
+	}
+
+	@Test(timeout = 30000)
+	public void testRegexMatchingIsAbortedAfterTheTimeout() {
+		PropertyQuery query = new PropertyQuery(null, "(.*a){25}b", PropertyQuery.Mode.REGEX, 0, 0);
+		String value = String.join("", Collections.nCopies(64, "a"));
+		assertThat(query.matches("key", value)).isFalse();
+		assertThat(query.getError()).contains("took longer than");
+		assertThat(query.matches("a", null)).isFalse();
+	}
+
+	@Test
+	public void testDownloadProperties() throws Exception {
+		Page page = r.createWebClient()
+				.goTo(String.format("job/%s/%d/springconfig/download?profiles=bar", jobName, buildNumber), null);
+		assertThat(page.getWebResponse().getResponseHeaderValue("Content-Disposition"))
+				.contains("spring-config-bar.properties");
+		Properties properties = new Properties();
+		properties.load(new StringReader(page.getWebResponse().getContentAsString()));
+		assertThat(properties).containsEntry("foo", "barporfile").containsEntry("d.array[2]", "a3").hasSize(6);
+	}
+
+	@Test
+	public void testDownloadYaml() throws Exception {
+		Page page = r.createWebClient()
+				.goTo(String.format("job/%s/%d/springconfig/download?format=yaml", jobName, buildNumber), null);
+		List<Object> documents = new ArrayList<>();
+		new Yaml().loadAll(page.getWebResponse().getContentAsString()).forEach(documents::add);
+		assertThat(documents).hasSize(2);
+		assertThat(documents.get(0)).asInstanceOf(InstanceOfAssertFactories.MAP).extractingByKey("d")
+				.asInstanceOf(InstanceOfAssertFactories.MAP).extractingByKey("array").isEqualTo(Arrays.asList("a1", "a2", "a3"));
+	}
+
+	@Test
+	public void testDownloadJson() throws Exception {
+		Page page = r.createWebClient()
+				.goTo(String.format("job/%s/%d/springconfig/download?format=json", jobName, buildNumber), null);
+		JSONObject json = JSONObject.fromObject(page.getWebResponse().getContentAsString());
+		assertThat(json.keySet()).containsExactly("", "bar");
+		assertThat(json.getJSONObject("bar").getString("a.b.c")).isEqualTo("nestedvalue");
+	}
+
+	@Test
+	public void testDownloadUnknownFormat() throws Exception {
+		JenkinsRule.WebClient webClient = r.createWebClient();
+		webClient.setThrowExceptionOnFailingStatusCode(false);
+		Page page = webClient
+				.goTo(String.format("job/%s/%d/springconfig/download?format=xml", jobName, buildNumber), null);
+		assertThat(page.getWebResponse().getStatusCode()).isEqualTo(400);
+	}
+
+	@Test
+	public void testBuildJsonOmitsProperties() throws Exception {
+		String buildJson = r.getJSON(String.format("job/%s/%d/api/json", jobName, buildNumber)).getContentAsString();
+		assertThat(buildJson).contains("SpringConfigAction").doesNotContain("nestedvalue");
+		String depthJson = r.getJSON(String.format("job/%s/%d/api/json?depth=1", jobName, buildNumber))
+				.getContentAsString();
+		assertThat(depthJson).contains("nestedvalue");
+	}
+
+}
@@ -0,0 +1,227 @@
+package org.jenkinsci.plugins.springconfig;
+
+import hudson.FilePath;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.boot.env.PropertiesPropertySourceLoader;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Constructor;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class SpringConfigLoaderTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void sameAsSpringApplicationWithoutProfiles() throws Exception {
+		write("application.yaml", "foo: bar\na:\n  b: ${foo}1\nlist:\n  - a1\n  - a2");
+		write("application-default.yaml", "default: yes");
+		assertSameResult(Collections.emptyList(), location());
+	}
+
+	@Test
+	public void sameAsSpringApplicationWithProfiles() throws Exception {
+		write("application.yaml", "foo: bar\ngoo: base");
+		write("application-p1.yaml", "foo: p1\nbar: p1");
+		write("application-p2.yaml", "foo: p2");
+		EnvironmentWrapper wrapper = assertSameResult(Arrays.asList("p1", "p2"), location());
+		assertThat(wrapper.asProperties()).containsEntry("foo", "p2").containsEntry("bar", "p1")
+				.containsEntry("goo", "base");
+	}
+
+	@Test
+	public void sameAsSpringApplicationWithMultiDocument() throws Exception {
+		write("application.yaml",
+				"foo: bar\n---\nspring:\n  config:\n    activate:\n      on-profile: p1\nfoo: fromdocument");
+		EnvironmentWrapper wrapper = assertSameResult(Collections.singletonList("p1"), location());
+		assertThat(wrapper.asProperties()).containsEntry("foo", "fromdocument");
+		assertSameResult(Collections.emptyList(), location());
+	}
+
+	@Test
+	public void sameAsSpringApplicationWithActiveProfileInFile() throws Exception {
+		write("application.yaml", "spring:\n  profiles:\n    active: p1\nfoo: bar");
+		write("application-p1.yaml", "foo: p1");
+		EnvironmentWrapper wrapper = assertSameResult(Collections.emptyList(), location());
+		assertThat(wrapper.getProfiles()).containsExactly("p1");
+		assertThat(wrapper.asProperties()).containsEntry("foo", "p1");
+	}
+
+	@Test
+	public void sameAsSpringApplicationWithPropertiesAndYaml() throws Exception {
+		write("application.yaml", "foo: yaml\nbar: yaml");
+		write("application.properties", "foo=properties");
+		EnvironmentWrapper wrapper = assertSameResult(Collections.emptyList(), location());
+		assertThat(wrapper.asProperties()).containsEntry("foo", "properties").containsEntry("bar", "yaml");
+	}
+
+	@Test
+	public void laterLocationOverridesEarlier() throws Exception {
+		write("a/application.yaml", "foo: a\nbar: a");
+		write("b/application.yaml", "foo: b");
+		EnvironmentWrapper wrapper = assertSameResult(Collections.emptyList(),
+				Arrays.asList(location() + "a/", location() + "b/"));
+		assertThat(wrapper.asProperties()).containsEntry("foo", "b").containsEntry("bar", "a");
+	}
+
+	@Test
+	public void sameResultFromSnapshot() throws Exception {
+		write("application.yaml", "foo: bar\na:\n  b: ${foo}1");
+		write("application-p1.properties", "foo=p1");
+		write("other/application.yaml", "bar: other");
+		List<String> locations = Arrays.asList(location(), location() + "other/application.yaml");
+		ConfigFilesSnapshot snapshot = ConfigFilesSnapshot.read(locations);
+		assertThat(snapshot.getFileCount()).isEqualTo(3);
+		EnvironmentWrapper fromFiles = new EnvironmentWrapper(
+				new SpringConfigLoader().load(Collections.singletonList("p1"), locations));
+		SpringConfigLoader.ConfigSource source = new SnapshotConfigSource(snapshot);
+		EnvironmentWrapper fromSnapshot = new EnvironmentWrapper(
+				new SpringConfigLoader(source).load(Collections.singletonList("p1"), locations));
+		assertThat(fromSnapshot.asProperties()).isEqualTo(fromFiles.asProperties()).containsEntry("a.b", "p11")
+				.containsEntry("bar", "other");
+	}
+
+	@Test
+	public void snapshotResolvesAgainstTheSystemPropertiesOfItsJvm() throws Exception {
+		write("application.yaml", "secret: ${springconfig.test.secret:hidden}");
+		List<String> locations = Collections.singletonList(location());
+		SnapshotConfigSource source = new SnapshotConfigSource(ConfigFilesSnapshot.read(locations));
+		System.setProperty("springconfig.test.secret", "controller");
+		try {
+			assertThat(new EnvironmentWrapper(new SpringConfigLoader(source).load(Collections.emptyList(), locations))
+					.asProperties()).containsEntry("secret", "hidden");
+			assertThat(new EnvironmentWrapper(new SpringConfigLoader().load(Collections.emptyList(), locations))
+					.asProperties()).containsEntry("secret", "controller");
+		}
+		finally {
+			System.clearProperty("springconfig.test.secret");
+		}
+	}
+
+	@Test
+	public void snapshotOnlyKeepsTheSystemPropertiesItRefersTo() throws Exception {
+		write("application.yaml", "url: ${springconfig.test.url:none}");
+		System.setProperty("springconfig.test.url", "http://${springconfig.test.host}");
+		System.setProperty("springconfig.test.host", "example.com");
+		System.setProperty("springconfig.test.secret", "secret");
+		try {
+			List<String> locations = Collections.singletonList(location());
+			ConfigFilesSnapshot snapshot = ConfigFilesSnapshot.read(locations);
+			assertThat(snapshot.getSystemProperties()).containsKeys("springconfig.test.url", "springconfig.test.host")
+					.doesNotContainKey("springconfig.test.secret");
+			assertThat(new EnvironmentWrapper(new SpringConfigLoader(new SnapshotConfigSource(snapshot))
+					.load(Collections.emptyList(), locations)).asProperties())
+							.containsEntry("url", "http://example.com");
+		}
+		finally {
+			System.clearProperty("springconfig.test.url");
+			System.clearProperty("springconfig.test.host");
+			System.clearProperty("springconfig.test.secret");
+		}
+	}
+
+	@Test
+	public void sameExtensionsAsTheSpringLoaders() {
+		List<String> extensions = new ArrayList<>();
+		extensions.addAll(Arrays.asList(new PropertiesPropertySourceLoader().getFileExtensions()));
+		extensions.addAll(Arrays.asList(new YamlPropertySourceLoader().getFileExtensions()));
+		assertThat(ConfigFileNames.EXTENSIONS).isEqualTo(extensions);
+	}
+
+	@Test
+	public void snapshotIsReadWithoutSpring() throws Exception {
+		write("application.yaml", "foo: bar");
+		write("application-p1.properties", "foo=p1");
+		List<String> loaded = new ArrayList<>();
+		ClassLoader isolated = new ClassLoader(getClass().getClassLoader()) {
+
+			@Override
+			protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+				synchronized (getClassLoadingLock(name)) {
+					if (name.startsWith("org.springframework.")
+							|| name.startsWith(SpringConfigLoader.class.getName())) {
+						loaded.add(name);
+						throw new ClassNotFoundException(name);
+					}
+					if (!name.startsWith(SpringConfigLoader.class.getPackage().getName() + ".")) {
+						return super.loadClass(name, resolve);
+					}
+					// The classes of the plugin are defined again, so their references go through this loader
+					Class<?> loadedClass = findLoadedClass(name);
+					if (loadedClass == null) {
+						try (InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class")) {
+							byte[] bytes = IOUtils.toByteArray(in);
+							loadedClass = defineClass(name, bytes, 0, bytes.length);
+						}
+						catch (IOException e) {
+							throw new ClassNotFoundException(name, e);
+						}
+					}
+					return loadedClass;
+				}
+			}
+
+		};
+		Constructor<?> constructor = isolated.loadClass(ConfigFilesSnapshot.Reader.class.getName())
+				.getDeclaredConstructor(List.class);
+		constructor.setAccessible(true);
+		FilePath.FileCallable<?> reader = (FilePath.FileCallable<?>) constructor
+				.newInstance(Collections.singletonList(location()));
+		Object snapshot = reader.invoke(folder.getRoot(), null);
+		// Looks up the members of the classes as remoting does
+		try (ObjectOutputStream out = new ObjectOutputStream(new ByteArrayOutputStream())) {
+			out.writeObject(snapshot);
+		}
+		assertThat(snapshot.getClass().getClassLoader()).isSameAs(isolated);
+		assertThat(loaded).isEmpty();
+	}
+
+	@Test
+	public void missingLocation() {
+		assertThatThrownBy(() -> new SpringConfigLoader().load(Collections.emptyList(),
+				Collections.singletonList(location() + "missing/"))).isInstanceOf(FileNotFoundException.class);
+	}
+
+	private EnvironmentWrapper assertSameResult(List<String> profiles, String location) throws Exception {
+		return assertSameResult(profiles, Collections.singletonList(location));
+	}
+
+	private EnvironmentWrapper assertSameResult(List<String> profiles, List<String> locations) throws Exception {
+		EnvironmentWrapper lightweight = new EnvironmentWrapper(
+				SpringConfigEngine.LIGHTWEIGHT.load(profiles, locations));
+		EnvironmentWrapper springApplication = new EnvironmentWrapper(
+				SpringConfigEngine.SPRING_APPLICATION.load(profiles, locations));
+		assertThat(lightweight.asProperties()).isEqualTo(springApplication.asProperties());
+		assertThat(lightweight.getProfiles()).isEqualTo(springApplication.getProfiles());
+		return lightweight;
+	}
+
+	private String location() {
+		return folder.getRoot().getAbsolutePath() + "/";
+	}
+
+	private void write(String path, String content) throws Exception {
+		File file = new File(folder.getRoot(), path);
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+	}
+
+}
@@ -1,8 +1,12 @@
 package org.jenkinsci.plugins.springconfig;
 
 import hudson.FilePath;
+import hudson.model.Label;
+import hudson.model.Result;
+import hudson.model.queue.QueueTaskFuture;
 import jenkins.model.Jenkins;
 import lombok.SneakyThrows;
+import net.sf.json.JSONObject;
 import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
 import org.jenkinsci.plugins.workflow.job.WorkflowRun;
@@ -10,6 +14,16 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.JenkinsRule;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
 public class SpringConfigTest {
 
 	@Rule
@@ -123,4 +137,302 @@ public class SpringConfigTest {
 		r.assertLogContains("nestedvalue", b);
 	}
 
-}
\ No newline at end of file
+	@Test
+	public void testReadSpringConfigCached() throws Exception {
+		Jenkins jenkins = r.jenkins;
+		WorkflowJob p = jenkins.createProject(WorkflowJob.class, "p");
+		FilePath applicationYaml = jenkins.getWorkspaceFor(p).child("application.yaml");
+		applicationYaml.copyFrom(this.getClass().getClassLoader().getResourceAsStream("nodefault/application.yaml"));
+		p.setDefinition(new CpsFlowDefinition("node {print springConfig().foo; print springConfig().foo}", true));
+		WorkflowRun b = r.assertBuildStatusSuccess(p.scheduleBuild2(0));
+		r.assertLogContains("Spring config cache miss", b);
+		r.assertLogContains("Spring config cache hit", b);
+	}
+
+	@Test
+	public void testReadSpringConfigCacheMissOnChange() throws Exception {
+		Jenkins jenkins = r.jenkins;
+		WorkflowJob p = jenkins.createProject(WorkflowJob.class, "p");
+		FilePath applicationYaml = jenkins.getWorkspaceFor(p).child("application.yaml");
+		applicationYaml.copyFrom(this.getClass().getClassLoader().getResourceAsStream("nodefault/application.yaml"));
+		p.setDefinition(new CpsFlowDefinition("node {print springConfig().foo\n"
+				+ "writeFile file: 'application.yaml', text: 'foo: changedvalue'\n"
+				+ "print springConfig().foo}", true));
+		WorkflowRun b = r.assertBuildStatusSuccess(p.scheduleBuild2(0));
+		r.assertLogContains("changedvalue", b);
+		r.assertLogNotContains("Spring config cache hit", b);
+	}
+
+	@Test
+	public void testReadSpringConfigWithTimeout() throws Exception {
+		Jenkins jenkins = r.jenkins;
+		WorkflowJob p = jenkins.createProject(WorkflowJob.class, "p");
+		FilePath applicationYaml = jenkins.getWorkspaceFor(p).child("application.yaml");
+		applicationYaml.copyFrom(this.getClass().getClassLoader().getResourceAsStream("nodefault/application.yaml"));
+		p.setDefinition(new CpsFlowDefinition("node {print springConfig(timeout: 60).a.b.c}", true));
+		WorkflowRun b = r.assertBuildStatusSuccess(p.scheduleBuild2(0));
+		r.assertLogContains("nestedvalue", b);
+	}
+
+	@Test
+	public void testReadSpringConfigMissingLocationFails() throws Exception {
+		Jenkins jenkins = r.jenkins;
+		WorkflowJob p = jenkins.createProject(WorkflowJob.class, "p");
+		p.setDefinition(new CpsFlowDefinition("node {springConfig(location: 'missing/')}", true));
+		WorkflowRun b = r.assertBuildStatus(Result.FAILURE, p.scheduleBuild2(0));
+		r.assertLogContains("does not exist", b);
+	}
+
+	@Test
+	public void testReadSpringConfigWithProfileSets() throws Exception {
+		Jenkins jenkins = r.jenkins;
+		WorkflowJob p = jenkins.createProject(WorkflowJob.class, "p");
+		FilePath ws = jenkins.getWorkspaceFor(p);
+		FilePath applicationYaml = ws.child("application.yaml");
+		applicationYaml.copyFrom(this.getClass().getClassLoader().getResourceAsStream("nodefault/application.yaml"));
+		FilePath applicationBarYaml = ws.child("application-bar.yaml");
+		applicationBarYaml
+				.copyFrom(this.getClass().getClassLoader().getResourceAsStream("nodefault/application-bar.yaml"));
+		p.setDefinition(new CpsFlowDefinition("node {def configs = springConfig(profileSets: [[], ['bar']])\n"
+				+ "print configs[''].foo + '/' + configs['bar'].foo}", true));
+		WorkflowRun b = r.assertBuildStatusSuccess(p.scheduleBuild2(0));
+		r.assertLogContains("bar/barporfile", b);
+		assertThat(b.getAction(SpringConfigAction.class).getProperties()).containsOnlyKeys("", "bar");
+	}
+
+	@Test
+	public void testReadSpringConfigWithProfileSetsActivatingTheSameProfiles() throws Exception {
+		WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "p");
+		p.setDefinition(new CpsFlowDefinition(
+				"node {writeFile file: 'application.yaml', text: 'spring.profiles.include: a\\nfoo: base'\n"
+						+ "writeFile file: 'application-a.yaml', text: 'foo: a'\n"
+						+ "def configs = springConfig(profileSets: [[], ['a']])\n"
+						+ "print 'keys=' + configs.keySet() + ' foo=' + configs[''].foo}",
+				true));
+		WorkflowRun b = r.assertBuildStatusSuccess(p.scheduleBuild2(0));
+		r.assertLogContains("keys=[, a] foo=a", b);
+		assertThat(b.getAction(SpringConfigAction.class).getProperties()).containsOnlyKeys("", "a");
+
+		p.setDefinition(new CpsFlowDefinition("node {springConfig(profileSets: [['a'], ['a']])}", true));
+		b = r.assertBuildStatus(Result.FAILURE, p.scheduleBuild2(0));
+		r.assertLogContains("profileSets contains [a] more than once", b);
+	}
+
+	@Test
+	public void testReadSpringConfigWithInclude() throws Exception {
+		Jenkins jenkins = r.jenkins;
+		WorkflowJob p = jenkins.createProject(WorkflowJob.class, "p");
+		FilePath applicationYaml = jenkins.getWorkspaceFor(p).child("application.yaml");
+		applicationYaml.copyFrom(this.getClass().getClassLoader().getResourceAsStream("nodefault/application.yaml"));
+		p.setDefinition(new CpsFlowDefinition(
+				"node {print springConfig(include: ['a.b'], exclude: ['d']).asProperties().keySet()}", true));
+		WorkflowRun b = r.assertBuildStatusSuccess(p.scheduleBuild2(0));
+		r.assertLogContains("[a.b.c]", b);
+		assertThat(b.getAction(SpringConfigAction.class).getProperties().get("")).containsOnlyKeys("a.b.c");
+	}
+
+	@Test
+	public void testReadSpringConfigInParallelBranches() throws Exception {
+		Jenkins jenkins = r.jenkins;
+		WorkflowJob p = jenkins.createProject(WorkflowJob.class, "p");
+		FilePath applicationYaml = jenkins.getWorkspaceFor(p).child("application.yaml");
+		applicationYaml.copyFrom(this.getClass().getClassLoader().getResourceAsStream("nodefault/application.yaml"));
+		p.setDefinition(new CpsFlowDefinition("node {def branches = [:]\n"
+				+ "for (int i = 0; i < 8; i++) {def profile = 'p' + i\n"
+				+ "branches[profile] = {springConfig(profiles: [profile])}}\n"
+				+ "parallel branches}", true));
+		WorkflowRun b = r.assertBuildStatusSuccess(p.scheduleBuild2(0));
+		assertThat(b.getActions(SpringConfigAction.class)).hasSize(1);
+		assertThat(b.getAction(SpringConfigAction.class).getSummaries()).containsOnlyKeys("p0", "p1", "p2", "p3",
+				"p4", "p5", "p6", "p7");
+		String buildXml = new String(Files.readAllBytes(new File(b.getRootDir(), "build.xml").toPath()),
+				StandardCharsets.UTF_8);
+		assertThat(buildXml.split("<hash>", -1)).hasSize(9);
+	}
+
+	@Test
+	public void testIdenticalConcurrentCallsReadTheFilesOnce() throws Exception {
+		Jenkins jenkins = r.jenkins;
+		WorkflowJob p = jenkins.createProject(WorkflowJob.class, "p");
+		FilePath applicationYaml = jenkins.getWorkspaceFor(p).child("application.yaml");
+		applicationYaml.copyFrom(this.getClass().getClassLoader().getResourceAsStream("nodefault/application.yaml"));
+		p.setDefinition(new CpsFlowDefinition("node {def branches = [:]\n"
+				+ "for (int i = 0; i < 8; i++) {def branch = 'b' + i\n"
+				+ "branches[branch] = {print branch + '=' + springConfig(profiles: ['p']).a.b.c}}\n"
+				+ "parallel branches}", true));
+		WorkflowRun b = r.assertBuildStatusSuccess(p.scheduleBuild2(0));
+		for (int i = 0; i < 8; i++) {
+			r.assertLogContains("b" + i + "=nestedvalue", b);
+		}
+		// The calls either joined the first one or found its result in the cache
+		assertThat(JenkinsRule.getLog(b).split("Spring config cache miss", -1)).hasSize(2);
+		assertThat(b.getAction(SpringConfigAction.class).getSummaries()).containsOnlyKeys("p");
+		// The joined calls record no metrics
+		int joined = JenkinsRule.getLog(b).split("Joining an identical springConfig call", -1).length - 1;
+		assertThat(b.getAction(SpringConfigAction.class).getMetrics()).hasSize(8 - joined);
+		assertThat(SpringConfigStatistics.get().getCalls()).isEqualTo(8 - joined);
+	}
+
+	@Test
+	public void testJoiningCallCallsAgainWhenTheJoinedCallFails() throws Exception {
+		Jenkins jenkins = r.jenkins;
+		WorkflowJob p = jenkins.createProject(WorkflowJob.class, "p");
+		FilePath ws = jenkins.getWorkspaceFor(p);
+		ws.child("application.yaml")
+				.copyFrom(this.getClass().getClassLoader().getResourceAsStream("nodefault/application.yaml"));
+		p.setDefinition(new CpsFlowDefinition("node {print 'foo=' + springConfig(timeout: 60).foo}", true));
+		// A call of the same build in progress, which times out
+		List<Object> key = SpringConfigStep.SpringProfileExecution.inFlightKey("p#1", jenkins.getChannel(),
+				ws.getRemote(), new SpringConfigStep());
+		CompletableFuture<Object> inFlight = new CompletableFuture<>();
+		SpringConfigStep.SpringProfileExecution.IN_FLIGHT.put(key, inFlight);
+
+		QueueTaskFuture<WorkflowRun> build = p.scheduleBuild2(0);
+		WorkflowRun b = build.waitForStart();
+		r.waitForMessage("Joining an identical springConfig call in progress", b);
+		SpringConfigStep.SpringProfileExecution.IN_FLIGHT.remove(key, inFlight);
+		inFlight.complete(SpringConfigStep.SpringProfileExecution.FAILED);
+		r.assertBuildStatusSuccess(build);
+		r.assertLogContains("The joined springConfig call failed, calling again", b);
+		r.assertLogContains("foo=bar", b);
+	}
+
+	@Test
+	public void testReadSpringConfigOfSeveralDirectories() throws Exception {
+		WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "p");
+		p.setDefinition(new CpsFlowDefinition("node {writeFile file: 'services/a/application.yaml', text: 'name: a'\n"
+				+ "writeFile file: 'services/b/application.yaml', text: 'name: b'\n"
+				+ "writeFile file: 'services/b/application-dev.yaml', text: 'name: b-dev'\n"
+				+ "writeFile file: 'services/docs/README.md', text: 'no config'\n"
+				+ "def configs = springConfig(baseDirectory: 'services', profiles: ['dev'], parallelism: 2)\n"
+				+ "print 'keys=' + configs.keySet() + ' a=' + configs.a.name + ' b=' + configs.b.name\n"
+				+ "print 'listed=' + springConfig(directories: ['services/a', 'services/b'])['services/b'].name}",
+				true));
+		WorkflowRun b = r.assertBuildStatusSuccess(p.scheduleBuild2(0));
+		r.assertLogContains("keys=[a, b] a=a b=b-dev", b);
+		r.assertLogContains("listed=b", b);
+		r.assertLogContains("Resolving the config of 2 directories with 2 threads", b);
+		assertThat(b.getAction(SpringConfigAction.class).getSummaries()).containsOnlyKeys("a:dev", "b:dev",
+				"services/a:", "services/b:");
+	}
+
+	@Test
+	public void testReadSpringConfigOfSeveralDirectoriesReportsEachFailure() throws Exception {
+		WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "p");
+		p.setDefinition(new CpsFlowDefinition("node {writeFile file: 'a/application.yaml', text: 'name: a'\n"
+				+ "writeFile file: 'b/application.yaml', text: 'name: b'\n"
+				+ "def configs = springConfig(directories: ['a', 'missing', 'b'])\n"
+				+ "print 'keys=' + configs.keySet() + ' b=' + configs.b.name}", true));
+		WorkflowRun b = r.assertBuildStatus(Result.UNSTABLE, p.scheduleBuild2(0));
+		r.assertLogContains("springConfig failed for missing: Config data location", b);
+		r.assertLogContains("springConfig failed for 1 of 3 directories, their configs are left out: missing", b);
+		r.assertLogContains("keys=[a, b] b=b", b);
+		assertThat(b.getAction(SpringConfigAction.class).getSummaries()).containsOnlyKeys("a:", "b:");
+	}
+
+	@Test
+	public void testReadSpringConfigOfSeveralDirectoriesWithKeyFilter() throws Exception {
+		WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "p");
+		p.setDefinition(new CpsFlowDefinition("node {for (int i = 0; i < 8; i++) {\n"
+				+ "writeFile file: \"services/s$i/application.yaml\",\n"
+				+ "text: \"app:\\n  name: s$i\\n  secret: x\\nother: o\"}\n"
+				+ "springConfig(baseDirectory: 'services', parallelism: 4, include: ['app'], exclude: ['app.secret'])}",
+				true));
+		WorkflowRun b = r.assertBuildStatusSuccess(p.scheduleBuild2(0));
+		Map<String, Map<String, String>> properties = b.getAction(SpringConfigAction.class).getProperties();
+		assertThat(properties).hasSize(8);
+		for (int i = 0; i < 8; i++) {
+			assertThat(properties.get("s" + i + ":")).containsOnly(entry("app.name", "s" + i));
+		}
+	}
+
+	@Test
+	public void testReadSpringConfigOfSeveralDirectoriesFailFast() throws Exception {
+		WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "p");
+		p.setDefinition(new CpsFlowDefinition("node {writeFile file: 'a/application.yaml', text: 'name: a'\n"
+				+ "springConfig(directories: ['missing', 'a'], failFast: true)}", true));
+		WorkflowRun b = r.assertBuildStatus(Result.FAILURE, p.scheduleBuild2(0));
+		r.assertLogContains("springConfig failed for missing: Config data location", b);
+		assertThat(b.getAction(SpringConfigAction.class)).isNull();
+	}
+
+	@Test
+	public void testReadSpringConfigOnAgentPreloadsJarsOnce() throws Exception {
+		r.createOnlineSlave(Label.get("remote"));
+		WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "p");
+		p.setDefinition(new CpsFlowDefinition("node('remote') {writeFile file: 'application.yaml', text: 'foo: bar'\n"
+				+ "print springConfig().foo + springConfig().foo}", true));
+		WorkflowRun b = r.assertBuildStatusSuccess(p.scheduleBuild2(0));
+		r.assertLogContains("barbar", b);
+		assertThat(JenkinsRule.getLog(b).split("Preloaded ", -1)).hasSize(2);
+	}
+
+	@Test
+	public void testReadSpringConfigInControllerMode() throws Exception {
+		r.createOnlineSlave(Label.get("remote"));
+		WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "p");
+		p.setDefinition(new CpsFlowDefinition("node('remote') {writeFile file: 'application.yaml', text: 'foo: bar'\n"
+				+ "writeFile file: 'application-p1.yaml', text: 'foo: p1\\na: [1, 2]'\n"
+				+ "def agent = springConfig(profiles: ['p1']).asProperties()\n"
+				+ "def controller = springConfig(profiles: ['p1'], mode: 'controller').asProperties()\n"
+				+ "print 'same=' + (agent == controller) + ' ' + controller}", true));
+		WorkflowRun b = r.assertBuildStatusSuccess(p.scheduleBuild2(0));
+		r.assertLogContains("same=true", b);
+		r.assertLogContains("foo:p1", b);
+		r.assertLogContains("Read 2 config files", b);
+	}
+
+	@Test
+	public void testReadSpringConfigInControllerModeDoesNotSeeControllerSystemProperties() throws Exception {
+		r.createOnlineSlave(Label.get("remote"));
+		WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "p");
+		p.setDefinition(new CpsFlowDefinition("node('remote') {writeFile file: 'application.yaml', "
+				+ "text: 'secret: ${springconfig.test.secret:hidden}'\n"
+				+ "print 'secret=' + springConfig(mode: 'controller').secret}", true));
+		System.setProperty("springconfig.test.secret", "controller");
+		try {
+			WorkflowRun b = r.assertBuildStatusSuccess(p.scheduleBuild2(0));
+			r.assertLogContains("secret=hidden", b);
+			assertThat(b.getAction(SpringConfigAction.class).getProperties().get("")).containsEntry("secret",
+					"hidden");
+		}
+		finally {
+			System.clearProperty("springconfig.test.secret");
+		}
+	}
+
+	@Test
+	public void testReadSpringConfigWithUnknownModeFails() throws Exception {
+		WorkflowJob p = r.jenkins.createProject(WorkflowJob.class, "p");
+		p.setDefinition(new CpsFlowDefinition("node {springConfig(mode: 'elsewhere')}", true));
+		WorkflowRun b = r.assertBuildStatus(Result.FAILURE, p.scheduleBuild2(0));
+		r.assertLogContains("Unknown mode elsewhere", b);
+	}
+
+	@Test
+	public void testReadSpringConfigRecordsMetrics() throws Exception {
+		Jenkins jenkins = r.jenkins;
+		WorkflowJob p = jenkins.createProject(WorkflowJob.class, "p");
+		FilePath applicationYaml = jenkins.getWorkspaceFor(p).child("application.yaml");
+		applicationYaml.copyFrom(this.getClass().getClassLoader().getResourceAsStream("nodefault/application.yaml"));
+		p.setDefinition(
+				new CpsFlowDefinition("node {springConfig(); springConfig(profileSets: [['a'], ['b']])}", true));
+		WorkflowRun b = r.assertBuildStatusSuccess(p.scheduleBuild2(0));
+		r.assertLogContains("springConfig []: 6 keys, ", b);
+		r.assertLogContains("springConfig [a;b]: 12 keys, ", b);
+		List<SpringConfigMetrics> metrics = b.getAction(SpringConfigAction.class).getMetrics();
+		assertThat(metrics).extracting(SpringConfigMetrics::getProfiles).containsExactly("", "a;b");
+		assertThat(metrics.get(0).getPhaseMicros()).containsOnlyKeys("preload", "read", "parse", "resolve",
+				"serialize", "transfer", "record");
+		assertThat(metrics.get(0).getPayloadBytes()).isPositive();
+
+		JSONObject json = r.getJSON(String.format("job/p/%d/springconfig/api/json", b.getNumber())).getJSONObject();
+		assertThat(json.getJSONArray("metrics").getJSONObject(1).getInt("keyCount")).isEqualTo(12);
+
+		SpringConfigStatistics statistics = SpringConfigStatistics.get();
+		assertThat(statistics.getCalls()).isEqualTo(2);
+		assertThat(statistics.getSizes().get(0).getMax()).isEqualTo("12");
+		r.createWebClient().goTo("manage/springConfigStatistics/");
+	}
+
+}
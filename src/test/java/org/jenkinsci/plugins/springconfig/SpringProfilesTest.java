@@ -1,7 +1,9 @@
 package org.jenkinsci.plugins.springconfig;
 
 import com.cloudbees.hudson.plugins.folder.Folder;
+import hudson.model.Items;
 import jenkins.model.Jenkins;
+import net.sf.json.JSONObject;
 import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
 import org.jenkinsci.plugins.workflow.job.WorkflowRun;
@@ -9,6 +11,10 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.JenkinsRule;
 
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
 public class SpringProfilesTest {
 
 	@Rule
@@ -84,4 +90,66 @@ public class SpringProfilesTest {
 		r.assertLogContains("profileUnix, profileLinux, profileProduction, profileRegion1", b);
 	}
 
-}
\ No newline at end of file
+	@Test
+	public void testFolderProfilesCacheInvalidation() throws Exception {
+		Jenkins jenkins = r.jenkins;
+
+		Folder top = jenkins.createProject(Folder.class, "top");
+		SpringProfilesFolderProperty profiles1 = new SpringProfilesFolderProperty();
+		profiles1.setSpringProfiles("profileUnix");
+		top.addProperty(profiles1);
+
+		Folder folder = top.createProject(Folder.class, "child");
+		SpringProfilesFolderProperty profiles2 = new SpringProfilesFolderProperty();
+		profiles2.setSpringProfiles("profileProduction");
+		folder.addProperty(profiles2);
+
+		FolderProfilesCache cache = FolderProfilesCache.getInstance();
+		List<String> cached = cache.get(folder);
+		assertThat(cached).containsExactly("profileUnix", "profileProduction");
+		assertThat(cache.get(folder)).isSameAs(cached);
+
+		profiles1.setSpringProfiles("profileLinux");
+		top.save();
+		assertThat(cache.get(folder)).containsExactly("profileLinux", "profileProduction");
+
+		Folder other = jenkins.createProject(Folder.class, "other");
+		SpringProfilesFolderProperty profiles3 = new SpringProfilesFolderProperty();
+		profiles3.setSpringProfiles("profileWindows");
+		other.addProperty(profiles3);
+		Items.move(folder, other);
+		assertThat(cache.get(folder)).containsExactly("profileWindows", "profileProduction");
+
+		WorkflowJob p = folder.createProject(WorkflowJob.class, "p");
+		p.setDefinition(new CpsFlowDefinition("print springProfiles()", true));
+		WorkflowRun b = r.assertBuildStatusSuccess(p.scheduleBuild2(0));
+		r.assertLogContains("profileWindows, profileProduction", b);
+	}
+
+	@Test
+	public void testEffectiveProfilesOfFolder() throws Exception {
+		Jenkins jenkins = r.jenkins;
+
+		Folder top = jenkins.createProject(Folder.class, "top");
+		SpringProfilesFolderProperty profiles1 = new SpringProfilesFolderProperty();
+		profiles1.setSpringProfiles("profileUnix,profileLinux");
+		top.addProperty(profiles1);
+		top.createProject(WorkflowJob.class, "p1");
+
+		Folder folder = top.createProject(Folder.class, "child");
+		SpringProfilesFolderProperty profiles2 = new SpringProfilesFolderProperty();
+		profiles2.setSpringProfiles("profileProduction");
+		folder.addProperty(profiles2);
+		WorkflowJob p2 = folder.createProject(WorkflowJob.class, "p2");
+		p2.addProperty(new SpringProfilesJobProperty("profileRegion1,profileUnix"));
+
+		JSONObject json = r.getJSON("job/top/springProfiles/").getJSONObject();
+		assertThat(json.getString("folder")).isEqualTo("top");
+		JSONObject jobs = json.getJSONObject("jobs");
+		assertThat(jobs.keySet()).containsOnly("top/p1", "top/child/p2");
+		assertThat(jobs.getJSONArray("top/p1")).containsExactly("profileUnix", "profileLinux");
+		assertThat(jobs.getJSONArray("top/child/p2")).containsExactly("profileUnix", "profileLinux",
+				"profileProduction", "profileRegion1");
+	}
+
+}